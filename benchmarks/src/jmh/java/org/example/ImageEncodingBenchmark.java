@@ -0,0 +1,71 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 encoding of synthetic images: one image through {@link SearchImageHandler#loadImage}, and a whole
+ * inline page through the buffered handler and through {@link StreamingSearchImageHandler}, which encodes
+ * chunk by chunk into the output. Allocation per operation ({@code -prof gc}) shows what streaming saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImageEncodingBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"16384", "262144", "1048576"})
+    int imageBytes;
+
+    private SearchImageHandler handler;
+    private StreamingSearchImageHandler streamingHandler;
+    private APIGatewayProxyRequestEvent request;
+    private byte[] event;
+
+    @Setup
+    public void setUp() {
+        InMemoryLabelIndex labelIndex = SyntheticCatalogue.labelIndex(PAGE_SIZE);
+        handler = new SearchImageHandler(SyntheticCatalogue.blobStore(PAGE_SIZE, imageBytes), labelIndex);
+        streamingHandler = new StreamingSearchImageHandler(handler);
+
+        // Every synthetic image matches; original variant, as the store holds no derivatives.
+        request = new APIGatewayProxyRequestEvent().withQueryStringParameters(Map.of(
+                "keyword", "NOT \"no such label\"",
+                "mode", "inline",
+                "variant", "original",
+                "limit", String.valueOf(PAGE_SIZE)
+        ));
+        event = ("{\"queryStringParameters\":{\"keyword\":\"NOT \\\"no such label\\\"\",\"mode\":\"inline\","
+                + "\"variant\":\"original\",\"limit\":\"" + PAGE_SIZE + "\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public SearchImageHandler.Image loadImage() {
+        return handler.loadImage("image", SyntheticCatalogue.imageId(0));
+    }
+
+    @Benchmark
+    public String inlinePage() {
+        return handler.handleRequest(request, null).getBody();
+    }
+
+    @Benchmark
+    public void streamedInlinePage() throws IOException {
+        streamingHandler.handleRequest(new ByteArrayInputStream(event), OutputStream.nullOutputStream(), null);
+    }
+}
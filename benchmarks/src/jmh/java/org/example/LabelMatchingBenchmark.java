@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * {@link SearchImageHandler#searchImagesByLabel} over a synthetic catalogue: query evaluation, cursor
+ * filtering and pagination, with the index either scanning every image in segments and returning all
+ * matches for pagination to sort, like the table scan fallback ({@code scan}), or answering from the warm
+ * bitmap index ({@code warm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LabelMatchingBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+    // The default SCAN_SEGMENTS of the search function.
+    private static final int SCAN_SEGMENTS = 4;
+
+    @Param({"10000", "100000", "1000000"})
+    int catalogueSize;
+
+    @Param({"scan", "warm"})
+    String index;
+
+    // A frequent label, a boolean expression over frequent labels, and a substring of rare labels.
+    @Param({"dog", "(dog OR cat) AND NOT night", "object 29"})
+    String query;
+
+    private ExecutorService scanExecutor;
+    private SearchImageHandler handler;
+    private LabelQuery labelQuery;
+    private String middleCursor;
+
+    @Setup
+    public void setUp() {
+        LabelIndex labelIndex = SyntheticCatalogue.labelIndex(catalogueSize);
+        if ("warm".equals(index)) {
+            // Never stale during a run, so every invocation is answered from memory.
+            labelIndex = new WarmLabelIndex(labelIndex, Runnable::run, Long.MAX_VALUE, 0, Long.MAX_VALUE, Long.MAX_VALUE, 3);
+        } else {
+            scanExecutor = Executors.newFixedThreadPool(SCAN_SEGMENTS);
+            labelIndex = new ScanLabelIndex(labelIndex, scanExecutor, SCAN_SEGMENTS);
+        }
+        handler = new SearchImageHandler(new InMemoryImageBlobStore(), labelIndex);
+        labelQuery = LabelQuery.parse(query);
+        middleCursor = SyntheticCatalogue.imageId(catalogueSize / 2);
+
+        // Builds the warm index outside the measurement.
+        handler.searchImagesByLabel(labelQuery, null, PAGE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (nonNull(scanExecutor)) {
+            scanExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public SearchImageHandler.SearchPage firstPage() {
+        return handler.searchImagesByLabel(labelQuery, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public SearchImageHandler.SearchPage middlePage() {
+        return handler.searchImagesByLabel(labelQuery, middleCursor, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,69 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SearchImageHandler#createSuccessResponse} for a page of already encoded images, and for a page
+ * of presigned links as returned in {@code url} mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseSerializationBenchmark {
+
+    @Param({"20", "100"})
+    int pageSize;
+
+    @Param({"16384", "262144"})
+    int imageBytes;
+
+    private SearchImageHandler handler;
+    private List<SearchImageHandler.Image> images;
+    private List<SearchImageHandler.ImageLink> links;
+    private String nextCursor;
+
+    @Setup
+    public void setUp() {
+        handler = new SearchImageHandler(new InMemoryImageBlobStore(), new InMemoryLabelIndex(false));
+        Random random = new Random(42);
+        String expiresAt = Instant.now().toString();
+
+        images = new ArrayList<>(pageSize);
+        links = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            String imageName = SyntheticCatalogue.imageId(i);
+            String imageData = Base64.getEncoder().encodeToString(SyntheticCatalogue.image(random, imageBytes));
+            images.add(new SearchImageHandler.Image(imageName, imageData, "image/jpeg"));
+            links.add(new SearchImageHandler.ImageLink(imageName,
+                    "https://bucket.s3.eu-central-1.amazonaws.com/" + imageName
+                            + "?X-Amz-Algorithm=AWS4-HMAC-SHA256&X-Amz-Expires=900&X-Amz-Signature=" + "0".repeat(64),
+                    expiresAt));
+        }
+        nextCursor = SearchImageHandler.encodeCursor(SyntheticCatalogue.imageId(pageSize - 1));
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent inlineImages() {
+        return handler.createSuccessResponse(images, nextCursor, List.of());
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent presignedLinks() {
+        return handler.createSuccessResponse(links, nextCursor, List.of());
+    }
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Answers queries the way {@link DynamoDbLabelIndex} does without a posting table, minus the network: the
+ * images are held in hash order, split into segments that are matched concurrently like the segments of
+ * {@link SegmentedTableScanner}, and every match after the cursor is returned, whatever {@code maxResults}
+ * is. Sorting and trimming them is left to the caller, as it is for a real scan. Everything other than
+ * queries is delegated.
+ */
+final class ScanLabelIndex implements LabelIndex {
+
+    private final LabelIndex delegate;
+    private final ExecutorService executor;
+    private final List<List<IndexedImage>> segments;
+
+    ScanLabelIndex(LabelIndex delegate, ExecutorService executor, int totalSegments) {
+        this.delegate = delegate;
+        this.executor = executor;
+
+        // DynamoDB returns items in the order of their partition key hashes, not in key order.
+        List<IndexedImage> images = new ArrayList<>(delegate.imagesUpdatedSince(0));
+        images.sort(Comparator.comparingInt(image -> Integer.reverse(image.imageId().hashCode())));
+
+        int segmentSize = (images.size() + totalSegments - 1) / totalSegments;
+        List<List<IndexedImage>> segments = new ArrayList<>(totalSegments);
+        for (int start = 0; start < images.size(); start += segmentSize) {
+            segments.add(List.copyOf(images.subList(start, Math.min(images.size(), start + segmentSize))));
+        }
+        this.segments = List.copyOf(segments);
+    }
+
+    @Override
+    public List<String> findImages(LabelQuery query, String after, int maxResults) {
+        Queue<String> matches = new ConcurrentLinkedQueue<>();
+        List<Future<?>> pending = segments.stream()
+                .<Future<?>>map(segment -> executor.submit(() -> scanSegment(segment, query, after, matches)))
+                .toList();
+        try {
+            for (Future<?> segment : pending) {
+                segment.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error scanning", e.getCause());
+        }
+        return new ArrayList<>(matches);
+    }
+
+    private static void scanSegment(List<IndexedImage> segment, LabelQuery query, String after, Queue<String> matches) {
+        for (IndexedImage image : segment) {
+            if (nonNull(after) && image.imageId().compareTo(after) <= 0) {
+                continue;
+            }
+            if (query.matches(image.labels())) {
+                matches.add(image.imageId());
+            }
+        }
+    }
+
+    @Override
+    public List<IndexedImage> imagesUpdatedSince(long epochSecond) {
+        return delegate.imagesUpdatedSince(epochSecond);
+    }
+
+    @Override
+    public List<String> imagesRemovedSince(long epochSecond) {
+        return delegate.imagesRemovedSince(epochSecond);
+    }
+
+    @Override
+    public Optional<IndexedImage> findImage(String imageId) {
+        return delegate.findImage(imageId);
+    }
+
+    @Override
+    public Map<String, IndexedImage> getImages(Collection<String> imageIds) {
+        return delegate.getImages(imageIds);
+    }
+
+    @Override
+    public boolean hasLabelCache() {
+        return delegate.hasLabelCache();
+    }
+
+    @Override
+    public Optional<List<String>> cachedLabels(String contentHash) {
+        return delegate.cachedLabels(contentHash);
+    }
+
+    @Override
+    public WriteBatch newBatch() {
+        return delegate.newBatch();
+    }
+
+    @Override
+    public boolean replace(IndexedImage image, IndexedImage previous, WriteBatch batch) {
+        return delegate.replace(image, previous, batch);
+    }
+
+    @Override
+    public boolean remove(IndexedImage previous, String sequencer, WriteBatch batch) {
+        return delegate.remove(previous, sequencer, batch);
+    }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic synthetic data for the benchmarks.
+ * <p>
+ * Catalogue images carry {@code MIN_LABELS} to {@code MAX_LABELS} labels drawn from a Zipf distribution
+ * over a vocabulary the size of Rekognition's, so a few labels such as {@code Animal} or {@code Person}
+ * are on a large share of the images and most labels are rare, as in a real catalogue. Images are random
+ * bytes: base64 encoding and serialization cost depend only on the size.
+ */
+final class SyntheticCatalogue {
+
+    static final int VOCABULARY_SIZE = 3_000;
+    static final int MIN_LABELS = 5;
+    static final int MAX_LABELS = 15;
+
+    // The head of the distribution, most frequent first; the tail is generated.
+    private static final String[] COMMON_LABELS = {
+            "Animal", "Person", "Human", "Outdoors", "Nature", "Pet", "Dog", "Plant", "Sky", "Clothing",
+            "Building", "Water", "Cat", "Tree", "Vehicle", "Car", "Food", "Indoors", "City", "Grass",
+            "Beach", "Sea", "Furniture", "Mountain", "Flower", "Bird", "Snow", "Sport", "Face", "Night"
+    };
+    private static final double ZIPF_EXPONENT = 1.0;
+    private static final long SEED = 42;
+
+    private static final List<String> VOCABULARY = vocabulary();
+    private static final double[] CUMULATIVE_WEIGHTS = cumulativeWeights();
+
+    private SyntheticCatalogue() {
+    }
+
+    static String imageId(int index) {
+        return String.format("images/%08d.jpg", index);
+    }
+
+    /**
+     * An index of {@code size} images with ids {@code imageId(0)} to {@code imageId(size - 1)}.
+     */
+    static InMemoryLabelIndex labelIndex(int size) {
+        InMemoryLabelIndex index = new InMemoryLabelIndex(false);
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            index.put(new IndexedImage(imageId(i), labels(random), null, null, null, Map.of(), 0));
+        }
+        return index;
+    }
+
+    /**
+     * A store with {@code count} images of {@code bytes} bytes each under {@code imageId(0)} onwards.
+     */
+    static InMemoryImageBlobStore blobStore(int count, int bytes) {
+        InMemoryImageBlobStore store = new InMemoryImageBlobStore();
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i++) {
+            store.put(imageId(i), image(random, bytes), "image/jpeg");
+        }
+        return store;
+    }
+
+    static byte[] image(Random random, int bytes) {
+        byte[] image = new byte[bytes];
+        random.nextBytes(image);
+        return image;
+    }
+
+    private static List<String> labels(Random random) {
+        int count = MIN_LABELS + random.nextInt(MAX_LABELS - MIN_LABELS + 1);
+        Set<String> labels = new LinkedHashSet<>();
+        while (labels.size() < count) {
+            labels.add(VOCABULARY.get(sampleRank(random)));
+        }
+        return new ArrayList<>(labels);
+    }
+
+    private static int sampleRank(Random random) {
+        double target = random.nextDouble() * CUMULATIVE_WEIGHTS[CUMULATIVE_WEIGHTS.length - 1];
+        int rank = Arrays.binarySearch(CUMULATIVE_WEIGHTS, target);
+        return rank >= 0 ? rank : Math.min(-rank - 1, CUMULATIVE_WEIGHTS.length - 1);
+    }
+
+    private static List<String> vocabulary() {
+        List<String> vocabulary = new ArrayList<>(List.of(COMMON_LABELS));
+        for (int i = vocabulary.size(); i < VOCABULARY_SIZE; i++) {
+            vocabulary.add("Object " + i);
+        }
+        return List.copyOf(vocabulary);
+    }
+
+    private static double[] cumulativeWeights() {
+        double[] weights = new double[VOCABULARY_SIZE];
+        double total = 0;
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            total += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            weights[rank] = total;
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,138 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static org.example.Environment.intEnv;
+
+/**
+ * Builds the SDK clients of all functions with a lean, explicit configuration, so client creation does
+ * no work beyond what the function needs: no HTTP stack discovery, no credential-chain or region probing
+ * and no endpoint lookups.
+ * <p>
+ * Settings, all optional:
+ * <ul>
+ *     <li>{@code AWS_HTTP_CLIENT}: {@code url-connection} (default, smallest startup cost) or {@code crt}
+ *     (native connection pool, better under many concurrent requests; the function must be built with the
+ *     CRT client bundled).</li>
+ *     <li>{@code AWS_SERVICE_REGION}: region of the tables, bucket and Rekognition; defaults to eu-central-1.</li>
+ *     <li>{@code AWS_HTTP_CONNECT_TIMEOUT_MILLIS}, {@code AWS_HTTP_SOCKET_TIMEOUT_MILLIS},
+ *     {@code AWS_HTTP_MAX_CONNECTIONS} (CRT only), {@code AWS_HTTP_MAX_IDLE_MILLIS} (CRT only).</li>
+ *     <li>A per-service endpoint override, named by the caller, e.g. {@code S3_ENDPOINT}.</li>
+ * </ul>
+ * Credentials come from the Lambda container credentials endpoint when present (SnapStart functions),
+ * otherwise from the environment variables Lambda sets, and only outside Lambda from the default chain.
+ */
+public final class AwsClientFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(AwsClientFactory.class);
+
+    private static final Region DEFAULT_REGION = Region.EU_CENTRAL_1;
+
+    // Named rather than referenced, so this class loads without the optional CRT client.
+    private static final String CRT_HTTP_CLIENT = "software.amazon.awssdk.http.crt.AwsCrtHttpClient";
+
+    private AwsClientFactory() {
+    }
+
+    /**
+     * Configures {@code builder} and builds the client. Each client gets its own HTTP client, which it
+     * closes together with itself.
+     */
+    public static <B extends AwsClientBuilder<B, C> & AwsSyncClientBuilder<B, C>, C> C create(B builder,
+                                                                                              String endpointVariable) {
+        builder.region(region())
+                .credentialsProvider(credentialsProvider())
+                .httpClientBuilder(httpClientBuilder());
+        endpointOverride(endpointVariable).ifPresent(builder::endpointOverride);
+        return builder.build();
+    }
+
+    public static Region region() {
+        String region = System.getenv("AWS_SERVICE_REGION");
+        return isNull(region) || region.isBlank() ? DEFAULT_REGION : Region.of(region.trim());
+    }
+
+    public static AwsCredentialsProvider credentialsProvider() {
+        if (isSet("AWS_CONTAINER_CREDENTIALS_FULL_URI") || isSet("AWS_CONTAINER_CREDENTIALS_RELATIVE_URI")) {
+            return ContainerCredentialsProvider.builder().build();
+        }
+        if (isSet("AWS_ACCESS_KEY_ID")) {
+            return EnvironmentVariableCredentialsProvider.create();
+        }
+        return DefaultCredentialsProvider.builder().build();
+    }
+
+    public static Optional<URI> endpointOverride(String endpointVariable) {
+        if (isNull(endpointVariable) || !isSet(endpointVariable)) {
+            return Optional.empty();
+        }
+        return Optional.of(URI.create(System.getenv(endpointVariable).trim()));
+    }
+
+    private static SdkHttpClient.Builder<?> httpClientBuilder() {
+        Duration connectTimeout = Duration.ofMillis(intEnv("AWS_HTTP_CONNECT_TIMEOUT_MILLIS", 2_000));
+        Duration socketTimeout = Duration.ofMillis(intEnv("AWS_HTTP_SOCKET_TIMEOUT_MILLIS", 30_000));
+
+        String httpClient = System.getenv("AWS_HTTP_CLIENT");
+        if ("crt".equalsIgnoreCase(httpClient)) {
+            if (!isOnClasspath(CRT_HTTP_CLIENT)) {
+                throw new IllegalStateException("AWS_HTTP_CLIENT is crt, but " + CRT_HTTP_CLIENT
+                        + " is not bundled with this function; build it with the crt property set");
+            }
+            return CrtHttpClients.builder(connectTimeout,
+                    Math.max(1, intEnv("AWS_HTTP_MAX_CONNECTIONS", 50)),
+                    Duration.ofMillis(intEnv("AWS_HTTP_MAX_IDLE_MILLIS", 60_000)));
+        }
+        if (nonNull(httpClient) && !httpClient.isBlank() && !"url-connection".equalsIgnoreCase(httpClient)) {
+            logger.warn("Unknown AWS_HTTP_CLIENT {}, using url-connection", httpClient);
+        }
+        return UrlConnectionHttpClient.builder()
+                .connectionTimeout(connectTimeout)
+                .socketTimeout(socketTimeout);
+    }
+
+    private static boolean isOnClasspath(String className) {
+        try {
+            Class.forName(className, false, AwsClientFactory.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static boolean isSet(String name) {
+        String value = System.getenv(name);
+        return nonNull(value) && !value.isBlank();
+    }
+
+    /**
+     * The only code referring to the CRT client, which is optional at runtime: this class is loaded when
+     * {@code crt} is chosen, and never otherwise.
+     */
+    private static final class CrtHttpClients {
+
+        static SdkHttpClient.Builder<?> builder(Duration connectTimeout, int maxConcurrency, Duration maxIdleTime) {
+            return AwsCrtHttpClient.builder()
+                    .connectionTimeout(connectTimeout)
+                    .maxConcurrency(maxConcurrency)
+                    .connectionMaxIdleTime(maxIdleTime);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Collects DynamoDB writes from the records of one invocation and flushes them with {@code BatchWriteItem}
+ * in chunks of 25.
+ * <p>
+ * Every write is tagged with the owner (image key) it belongs to, so {@link #flush()} can report which
+ * owners did not get all of their writes persisted. {@code UnprocessedItems} are retried with full-jitter
+ * exponential backoff. A chunk rejected as a whole is retried one write at a time, so one bad item only
+ * fails its own owner. Writes to a key already buffered replace the earlier write, since a batch may not
+ * contain the same key twice.
+ */
+class BatchWriteBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchWriteBuffer.class);
+
+    private static final int BATCH_WRITE_LIMIT = 25;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 2_000;
+
+    private record BufferedKey(String tableName, Map<String, AttributeValue> key) {}
+
+    private record BufferedWrite(BufferedKey key, WriteRequest request, Set<String> owners) {}
+
+    private final DynamoDbClient dynamoDbClient;
+    private final Map<BufferedKey, BufferedWrite> buffered = new LinkedHashMap<>();
+
+    BatchWriteBuffer(DynamoDbClient dynamoDbClient) {
+        this.dynamoDbClient = dynamoDbClient;
+    }
+
+    synchronized void add(String owner, String tableName, Map<String, AttributeValue> key, WriteRequest request) {
+        BufferedKey bufferedKey = new BufferedKey(tableName, key);
+        BufferedWrite previous = buffered.get(bufferedKey);
+        Set<String> owners = new HashSet<>();
+        owners.add(owner);
+        if (nonNull(previous)) {
+            owners.addAll(previous.owners());
+        }
+        buffered.put(bufferedKey, new BufferedWrite(bufferedKey, request, owners));
+    }
+
+    /**
+     * Writes everything buffered so far and returns the owners with at least one write that could not be
+     * persisted.
+     */
+    Set<String> flush() {
+        List<BufferedWrite> writes;
+        synchronized (this) {
+            writes = new ArrayList<>(buffered.values());
+            buffered.clear();
+        }
+
+        Set<String> failedOwners = new HashSet<>();
+        for (int from = 0; from < writes.size(); from += BATCH_WRITE_LIMIT) {
+            List<BufferedWrite> chunk = writes.subList(from, Math.min(from + BATCH_WRITE_LIMIT, writes.size()));
+            try {
+                writeChunk(chunk, failedOwners);
+            } catch (DynamoDbException e) {
+                if (chunk.size() == 1) {
+                    logger.error("Batch write to {} failed", chunk.get(0).key().tableName(), e);
+                    failedOwners.addAll(chunk.get(0).owners());
+                    continue;
+                }
+                logger.warn("Batch write rejected, retrying {} writes individually: {}", chunk.size(), e.getMessage());
+                for (BufferedWrite write : chunk) {
+                    try {
+                        writeChunk(List.of(write), failedOwners);
+                    } catch (DynamoDbException single) {
+                        logger.error("Batch write to {} failed", write.key().tableName(), single);
+                        failedOwners.addAll(write.owners());
+                    }
+                }
+            }
+        }
+        return failedOwners;
+    }
+
+    private void writeChunk(List<BufferedWrite> chunk, Set<String> failedOwners) {
+        Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+        Map<WriteRequest, BufferedWrite> byRequest = new HashMap<>();
+        for (BufferedWrite write : chunk) {
+            requestItems.computeIfAbsent(write.key().tableName(), tableName -> new ArrayList<>()).add(write.request());
+            byRequest.put(write.request(), write);
+        }
+
+        for (int attempt = 1; !requestItems.isEmpty(); attempt++) {
+            BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                    .requestItems(requestItems)
+                    .build());
+
+            if (!response.hasUnprocessedItems() || response.unprocessedItems().isEmpty()) {
+                return;
+            }
+            requestItems = response.unprocessedItems();
+
+            if (attempt == MAX_ATTEMPTS) {
+                requestItems.values().stream()
+                        .flatMap(List::stream)
+                        .map(byRequest::get)
+                        .filter(Objects::nonNull)
+                        .forEach(write -> failedOwners.addAll(write.owners()));
+                logger.error("Giving up on unprocessed batch writes after {} attempts", MAX_ATTEMPTS);
+                return;
+            }
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Sleeps for a full-jitter exponential backoff before retry {@code attempt + 1} of a batch call.
+     */
+    static void backOff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 10));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off a batch call", e);
+        }
+    }
+}
@@ -0,0 +1,762 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionCheck;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * {@link LabelIndex} over the DynamoDB tables:
+ * <ul>
+ *   <li>the image table, keyed by {@code imageId}, with the labels, source version, S3 sequencer and
+ *       derivatives of every image,</li>
+ *   <li>optionally the posting table (label -> imageId) and gram table (n-gram -> label) that
+ *       {@link LabelIndexTable} queries instead of scanning the image table. They are written whenever
+ *       they are configured, but only queried once both are and they have been backfilled with the
+ *       images indexed before them; until then queries scan, so they keep matching substrings of
+ *       labels and find every image,</li>
+ *   <li>optionally the label cache table, keyed by {@code contentHash}.</li>
+ * </ul>
+ * New images are written with {@code BatchWriteItem}; overwrites and removals are transactions conditional
+ * on the stored sequencer being older than the event's. A removed image leaves a tombstone in the image
+ * table: its {@code imageId}, {@code sequencer}, {@code timestamp} and {@code removed} set to true, which
+ * every read skips. Tombstones let {@link #imagesRemovedSince} report removals, and carry
+ * {@code expiresAt} for the table's time to live to delete them after {@code TOMBSTONE_TTL_SECONDS}.
+ * <p>
+ * Every item carries {@code updatedBucket}, the hour of its {@code timestamp}. A global secondary index on
+ * the image table with partition key {@code updatedBucket} and sort key {@code timestamp}, projecting
+ * {@code labels} and {@code removed}, lets {@link #imagesUpdatedSince} and {@link #imagesRemovedSince} read
+ * recent changes with one query per hour instead of a table scan. Without that index recent changes are
+ * read with a filtered scan.
+ */
+public class DynamoDbLabelIndex implements LabelIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDbLabelIndex.class);
+
+    // DynamoDB's limits on the number of actions in one TransactWriteItems call and keys in one BatchGetItem.
+    private static final int MAX_TRANSACT_ITEMS = 100;
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    private static final int MAX_BATCH_GET_ATTEMPTS = 5;
+    private static final String OLDER_SEQUENCER_CONDITION = "attribute_not_exists(#sequencer) OR #sequencer < :sequencer";
+    private static final long UPDATED_BUCKET_SECONDS = 3600;
+    // Far longer than any warm label index goes between refreshes.
+    private static final long TOMBSTONE_TTL_SECONDS = 7 * 24 * 3600;
+    // A scan reads every image whatever the page size, so it keeps this many pages of sorted matches for
+    // the pages that follow, for a limited time.
+    private static final int SCAN_PREFETCH_PAGES = 10;
+    private static final int SCANNED_MATCHES_CAPACITY = 32;
+    private static final long SCANNED_MATCHES_TTL_MILLIS = 60_000;
+
+    // Labels whose n-grams this container has already written; the Rekognition vocabulary is bounded,
+    // so gram writes die out once a warm container has seen the common labels.
+    private static final Set<String> REGISTERED_LABELS = ConcurrentHashMap.newKeySet();
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final String postingTableName;
+    private final String gramTableName;
+    private final String labelCacheTableName;
+    private final String updatedIndexName;
+    private final int ngramSize;
+    private final boolean queryLabelIndexTable;
+    private final SegmentedTableScanner tableScanner;
+    private final LabelIndexTable labelIndexTable;
+    private final Map<LabelQuery, ScannedMatches> scannedMatches = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LabelQuery, ScannedMatches> eldest) {
+                    return size() > SCANNED_MATCHES_CAPACITY;
+                }
+            });
+
+    /**
+     * The first matches after {@code after} found by a scan, sorted; {@code complete} when they are all of
+     * them.
+     */
+    private record ScannedMatches(String after, List<String> imageIds, boolean complete, long scannedAtMillis) {
+
+        /**
+         * The page after {@code cursor}, or empty when these matches do not hold all of it or are too old.
+         */
+        Optional<List<String>> page(String cursor, int maxResults) {
+            if (System.currentTimeMillis() - scannedAtMillis > SCANNED_MATCHES_TTL_MILLIS
+                    || (nonNull(after) && (isNull(cursor) || cursor.compareTo(after) < 0))) {
+                return Optional.empty();
+            }
+            int from = 0;
+            if (nonNull(cursor)) {
+                int position = Collections.binarySearch(imageIds, cursor);
+                from = position >= 0 ? position + 1 : -position - 1;
+            }
+            long to = (long) from + maxResults;
+            if (to > imageIds.size() && !complete) {
+                return Optional.empty();
+            }
+            return Optional.of(imageIds.subList(from, (int) Math.min(to, imageIds.size())));
+        }
+    }
+
+    /**
+     * @param postingTableName    null or empty when there is no posting table
+     * @param gramTableName       null or empty when there is no gram table
+     * @param labelCacheTableName null or empty when there is no label cache table
+     * @param updatedIndexName    the {@code updatedBucket} index of the image table; null or empty when
+     *                            there is none, or when this index is only written to
+     * @param labelIndexBackfilled whether the posting and gram tables hold every indexed image, so
+     *                             queries may use them
+     * @param scanExecutor        runs the segments of a scan; may be null when {@code scanSegments} is 1
+     */
+    public DynamoDbLabelIndex(DynamoDbClient dynamoDbClient,
+                              String tableName,
+                              String postingTableName,
+                              String gramTableName,
+                              String labelCacheTableName,
+                              String updatedIndexName,
+                              boolean labelIndexBackfilled,
+                              int ngramSize,
+                              ExecutorService scanExecutor,
+                              int scanSegments) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.postingTableName = postingTableName;
+        this.gramTableName = gramTableName;
+        this.labelCacheTableName = labelCacheTableName;
+        this.updatedIndexName = updatedIndexName;
+        this.ngramSize = ngramSize;
+        this.queryLabelIndexTable = labelIndexBackfilled && hasPostingTable() && hasGramTable();
+        this.tableScanner = new SegmentedTableScanner(dynamoDbClient, scanExecutor, scanSegments);
+        this.labelIndexTable = new LabelIndexTable(dynamoDbClient, postingTableName, gramTableName, ngramSize);
+    }
+
+    @Override
+    public List<String> findImages(LabelQuery query, String after, int maxResults) {
+        if (queryLabelIndexTable) {
+            Optional<List<String>> indexed = labelIndexTable.findImages(query, after, maxResults);
+            if (indexed.isPresent()) {
+                return indexed.get();
+            }
+        }
+        return scanImages(query, after, maxResults);
+    }
+
+    /**
+     * Scans for the matches after {@code after}. Scans return images in hash order, so every image must be
+     * read before the first page in key order is known; the scan therefore cannot stop at
+     * {@code maxResults}, and instead keeps {@code SCAN_PREFETCH_PAGES} pages, which serve the next pages
+     * of the same query without another scan for up to {@code SCANNED_MATCHES_TTL_MILLIS}.
+     */
+    private List<String> scanImages(LabelQuery query, String after, int maxResults) {
+        ScannedMatches scanned = scannedMatches.get(query);
+        Optional<List<String>> page = isNull(scanned) ? Optional.empty() : scanned.page(after, maxResults);
+        if (page.isPresent()) {
+            return page.get();
+        }
+
+        List<String> matches = new ArrayList<>(scanAllImages(query, after));
+        matches.sort(null);
+        long kept = Math.min((long) maxResults * SCAN_PREFETCH_PAGES, Integer.MAX_VALUE);
+        scanned = kept < matches.size()
+                ? new ScannedMatches(after, List.copyOf(matches.subList(0, (int) kept)), false, System.currentTimeMillis())
+                : new ScannedMatches(after, List.copyOf(matches), true, System.currentTimeMillis());
+        scannedMatches.put(query, scanned);
+        return scanned.page(after, maxResults).orElseThrow();
+    }
+
+    private List<String> scanAllImages(LabelQuery query, String after) {
+        try {
+            ScanRequest scanRequest = ScanRequest.builder()
+                    .tableName(tableName)
+                    .projectionExpression("imageId, labels, #removed")
+                    .expressionAttributeNames(Map.of("#removed", "removed"))
+                    .build();
+
+            return tableScanner.scan(scanRequest, item -> matchLabel(item, query, after));
+        } catch (DynamoDbException e) {
+            throw new RuntimeException("Error scanning DynamoDB table: " + e.getMessage(), e);
+        }
+    }
+
+    private static Optional<String> matchLabel(Map<String, AttributeValue> item, LabelQuery query, String after) {
+        String imageId = stringAttribute(item, "imageId");
+        if (isNull(imageId) || isRemoved(item) || (nonNull(after) && imageId.compareTo(after) <= 0)) {
+            return Optional.empty();
+        }
+        return query.matches(labelsOf(item)) ? Optional.of(imageId) : Optional.empty();
+    }
+
+    @Override
+    public List<IndexedImage> imagesUpdatedSince(long epochSecond) {
+        return readChangedSince(epochSecond, false, DynamoDbLabelIndex::toImage);
+    }
+
+    @Override
+    public List<String> imagesRemovedSince(long epochSecond) {
+        return readChangedSince(epochSecond, true, item -> stringAttribute(item, "imageId"));
+    }
+
+    /**
+     * Reads the images, or the tombstones when {@code removed}, written at or after {@code epochSecond}:
+     * from the {@code updatedBucket} index when there is one, otherwise with a filtered scan.
+     */
+    private <T> List<T> readChangedSince(long epochSecond, boolean removed, Function<Map<String, AttributeValue>, T> mapper) {
+        String removedCondition = removed ? "attribute_exists(#removed)" : "attribute_not_exists(#removed)";
+        if (epochSecond > 0 && hasUpdatedIndex()) {
+            return queryChangedSince(epochSecond, removedCondition, mapper);
+        }
+
+        ScanRequest.Builder scanRequest = ScanRequest.builder()
+                .tableName(tableName)
+                .projectionExpression("imageId, labels, #ts")
+                .expressionAttributeNames(Map.of("#ts", "timestamp", "#removed", "removed"));
+        if (epochSecond > 0) {
+            scanRequest.filterExpression("#ts >= :since AND " + removedCondition)
+                    .expressionAttributeValues(Map.of(":since", AttributeValue.fromN(String.valueOf(epochSecond))));
+        } else {
+            scanRequest.filterExpression(removedCondition);
+        }
+        return tableScanner.scan(scanRequest.build(),
+                item -> nonNull(stringAttribute(item, "imageId")) ? Optional.of(mapper.apply(item)) : Optional.empty());
+    }
+
+    /**
+     * Queries the {@code updatedBucket} index once per hour from {@code epochSecond} to the current hour,
+     * plus one hour for writers whose clocks run ahead.
+     */
+    private <T> List<T> queryChangedSince(long epochSecond, String removedCondition, Function<Map<String, AttributeValue>, T> mapper) {
+        long lastBucket = System.currentTimeMillis() / 1000 / UPDATED_BUCKET_SECONDS + 1;
+        List<T> images = new ArrayList<>();
+        try {
+            for (long bucket = epochSecond / UPDATED_BUCKET_SECONDS; bucket <= lastBucket; bucket++) {
+                QueryRequest queryRequest = QueryRequest.builder()
+                        .tableName(tableName)
+                        .indexName(updatedIndexName)
+                        .keyConditionExpression("#bucket = :bucket AND #ts >= :since")
+                        .filterExpression(removedCondition)
+                        .projectionExpression("imageId, labels, #ts")
+                        .expressionAttributeNames(Map.of("#bucket", "updatedBucket", "#ts", "timestamp", "#removed", "removed"))
+                        .expressionAttributeValues(Map.of(
+                                ":bucket", AttributeValue.fromN(String.valueOf(bucket)),
+                                ":since", AttributeValue.fromN(String.valueOf(epochSecond))
+                        ))
+                        .build();
+                for (Map<String, AttributeValue> item : dynamoDbClient.queryPaginator(queryRequest).items()) {
+                    if (nonNull(stringAttribute(item, "imageId"))) {
+                        images.add(mapper.apply(item));
+                    }
+                }
+            }
+        } catch (DynamoDbException e) {
+            throw new RuntimeException("Error querying updated images: " + e.getMessage(), e);
+        }
+        return images;
+    }
+
+    @Override
+    public Optional<IndexedImage> findImage(String imageId) {
+        Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(tableName)
+                .key(imageKey(imageId))
+                .projectionExpression("imageId, eTag, versionId, labels, derivatives, #sequencer, #ts, #removed")
+                .expressionAttributeNames(Map.of("#sequencer", "sequencer", "#ts", "timestamp", "#removed", "removed"))
+                .consistentRead(true)
+                .build()).item();
+        return isNull(item) || item.isEmpty() || isRemoved(item) ? Optional.empty() : Optional.of(toImage(item));
+    }
+
+    /**
+     * Reads the items with {@code BatchGetItem}, retrying {@code UnprocessedKeys} with the same full-jitter
+     * backoff as batch writes. Keys still unprocessed after a few attempts are left out, as if they were not
+     * indexed.
+     */
+    @Override
+    public Map<String, IndexedImage> getImages(Collection<String> imageIds) {
+        List<String> ids = imageIds.stream().distinct().toList();
+        Map<String, IndexedImage> images = new HashMap<>();
+        try {
+            for (int from = 0; from < ids.size(); from += MAX_BATCH_GET_KEYS) {
+                Map<String, KeysAndAttributes> requestItems = Map.of(tableName, KeysAndAttributes.builder()
+                        .keys(ids.subList(from, Math.min(from + MAX_BATCH_GET_KEYS, ids.size())).stream()
+                                .map(DynamoDbLabelIndex::imageKey)
+                                .toList())
+                        .projectionExpression("imageId, derivatives, #removed")
+                        .expressionAttributeNames(Map.of("#removed", "removed"))
+                        .build());
+
+                for (int attempt = 1; !requestItems.isEmpty() && attempt <= MAX_BATCH_GET_ATTEMPTS; attempt++) {
+                    BatchGetItemResponse response = dynamoDbClient.batchGetItem(BatchGetItemRequest.builder()
+                            .requestItems(requestItems)
+                            .build());
+                    for (Map<String, AttributeValue> item : response.responses().getOrDefault(tableName, List.of())) {
+                        if (nonNull(stringAttribute(item, "imageId")) && !isRemoved(item)) {
+                            IndexedImage image = toImage(item);
+                            images.put(image.imageId(), image);
+                        }
+                    }
+                    requestItems = response.hasUnprocessedKeys() ? response.unprocessedKeys() : Map.of();
+                    if (!requestItems.isEmpty() && attempt < MAX_BATCH_GET_ATTEMPTS) {
+                        BatchWriteBuffer.backOff(attempt);
+                    }
+                }
+                if (!requestItems.isEmpty()) {
+                    logger.warn("Giving up on unprocessed image reads after {} attempts", MAX_BATCH_GET_ATTEMPTS);
+                }
+            }
+        } catch (DynamoDbException e) {
+            throw new RuntimeException("Error reading images: " + e.getMessage(), e);
+        }
+        return images;
+    }
+
+    @Override
+    public boolean hasLabelCache() {
+        return nonNull(labelCacheTableName) && !labelCacheTableName.isEmpty();
+    }
+
+    @Override
+    public Optional<List<String>> cachedLabels(String contentHash) {
+        if (!hasLabelCache()) {
+            return Optional.empty();
+        }
+        Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest.builder()
+                .tableName(labelCacheTableName)
+                .key(Map.of("contentHash", AttributeValue.fromS(contentHash)))
+                .build()).item();
+        return isNull(item) || item.isEmpty() ? Optional.empty() : Optional.of(labelsOf(item));
+    }
+
+    @Override
+    public WriteBatch newBatch() {
+        return new DynamoDbWriteBatch(new BatchWriteBuffer(dynamoDbClient));
+    }
+
+    /**
+     * Overwrites the item and swaps its label postings in one transaction, so search never sees a mix of
+     * old and new labels. When the change is too large for one transaction the item is written first and
+     * the postings are buffered in {@code batch}.
+     */
+    @Override
+    public boolean replace(IndexedImage image, IndexedImage previous, WriteBatch batch) {
+        BatchWriteBuffer writes = ((DynamoDbWriteBatch) batch).writes;
+        String key = image.imageId();
+        Map<String, AttributeValue> item = item(image);
+
+        Put.Builder putItem = Put.builder()
+                .tableName(tableName)
+                .item(item);
+        if (item.containsKey("sequencer")) {
+            putItem.conditionExpression(OLDER_SEQUENCER_CONDITION)
+                    .expressionAttributeNames(Map.of("#sequencer", "sequencer"))
+                    .expressionAttributeValues(Map.of(":sequencer", item.get("sequencer")));
+        }
+
+        List<TransactWriteItem> transactItems = new ArrayList<>();
+        transactItems.add(TransactWriteItem.builder().put(putItem.build()).build());
+        List<String> normalizedLabels = normalizedLabels(image.labels());
+        if (hasPostingTable()) {
+            Set<String> staleLabels = new LinkedHashSet<>(normalizedLabels(previous.labels()));
+            normalizedLabels.forEach(staleLabels::remove);
+            for (String label : normalizedLabels) {
+                transactItems.add(TransactWriteItem.builder()
+                        .put(Put.builder().tableName(postingTableName).item(postingKey(label, key)).build())
+                        .build());
+            }
+            for (String label : staleLabels) {
+                transactItems.add(deletePosting(label, key));
+            }
+        }
+
+        if (transactItems.size() > MAX_TRANSACT_ITEMS) {
+            // Too large for one transaction; write the item and postings, then drop the stale postings.
+            logger.warn("Too many label changes to replace atomically for image: {}", key);
+            if (!transactWrite(key, transactItems.subList(0, 1))) {
+                return false;
+            }
+            putLabelPostings(key, image.labels(), writes);
+            transactItems.stream()
+                    .filter(transactItem -> nonNull(transactItem.delete()))
+                    .forEach(transactItem -> writes.add(key, postingTableName, transactItem.delete().key(),
+                            deleteRequest(transactItem.delete().key())));
+        } else {
+            if (!transactWrite(key, transactItems)) {
+                return false;
+            }
+            if (hasPostingTable() && hasGramTable()) {
+                putLabelGrams(key, normalizedLabels, writes);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the item with a tombstone and deletes its label postings in one transaction; postings that
+     * do not fit are buffered in {@code batch}.
+     */
+    @Override
+    public boolean remove(IndexedImage previous, String sequencer, WriteBatch batch) {
+        BatchWriteBuffer writes = ((DynamoDbWriteBatch) batch).writes;
+        String key = previous.imageId();
+
+        List<TransactWriteItem> transactItems = new ArrayList<>();
+        Put.Builder putTombstone = Put.builder()
+                .tableName(tableName)
+                .item(tombstone(key, sequencer));
+        if (nonNull(sequencer)) {
+            putTombstone.conditionExpression(OLDER_SEQUENCER_CONDITION)
+                    .expressionAttributeNames(Map.of("#sequencer", "sequencer"))
+                    .expressionAttributeValues(Map.of(":sequencer", AttributeValue.fromS(sequencer)));
+        }
+        transactItems.add(TransactWriteItem.builder().put(putTombstone.build()).build());
+
+        List<TransactWriteItem> postingDeletes = hasPostingTable()
+                ? normalizedLabels(previous.labels()).stream().map(label -> deletePosting(label, key)).toList()
+                : List.of();
+        boolean atomic = transactItems.size() + postingDeletes.size() <= MAX_TRANSACT_ITEMS;
+        if (atomic) {
+            transactItems.addAll(postingDeletes);
+        }
+
+        if (!transactWrite(key, transactItems)) {
+            return false;
+        }
+        if (!atomic) {
+            // Only once the item is gone: a superseded removal must leave the newer image's postings alone.
+            logger.warn("Too many postings to remove atomically for image: {}", key);
+            postingDeletes.forEach(posting -> writes.add(key, postingTableName, posting.delete().key(),
+                    deleteRequest(posting.delete().key())));
+        }
+        return true;
+    }
+
+    /**
+     * Writes the postings and n-grams of every image in the image table, for images indexed before the
+     * posting and gram tables were configured. The postings of each image are written in a transaction
+     * checking that the image is still indexed with the {@code timestamp} that was scanned, so an image
+     * replaced or removed meanwhile keeps the postings its writer gave it. Postings already present are
+     * simply rewritten, so the backfill can be run again after a failure.
+     *
+     * @return the number of images whose postings were written
+     */
+    public int backfillLabelIndex() {
+        if (!hasPostingTable() || !hasGramTable()) {
+            throw new IllegalStateException("Backfilling needs both the posting and the gram table");
+        }
+        ScanRequest scanRequest = ScanRequest.builder()
+                .tableName(tableName)
+                .projectionExpression("imageId, labels, #ts")
+                .filterExpression("attribute_not_exists(#removed)")
+                .expressionAttributeNames(Map.of("#ts", "timestamp", "#removed", "removed"))
+                .build();
+        return tableScanner.scan(scanRequest, item -> nonNull(stringAttribute(item, "imageId")) && backfillImage(item)
+                ? Optional.of(stringAttribute(item, "imageId"))
+                : Optional.empty()).size();
+    }
+
+    private boolean backfillImage(Map<String, AttributeValue> item) {
+        String key = stringAttribute(item, "imageId");
+        List<String> normalizedLabels = normalizedLabels(labelsOf(item));
+        ConditionCheck.Builder unchangedCheck = ConditionCheck.builder()
+                .tableName(tableName)
+                .key(imageKey(key))
+                .expressionAttributeNames(Map.of("#ts", "timestamp", "#removed", "removed"));
+        if (item.containsKey("timestamp")) {
+            unchangedCheck.conditionExpression("#ts = :ts AND attribute_not_exists(#removed)")
+                    .expressionAttributeValues(Map.of(":ts", item.get("timestamp")));
+        } else {
+            unchangedCheck.conditionExpression("attribute_not_exists(#ts) AND attribute_not_exists(#removed)");
+        }
+        TransactWriteItem unchanged = TransactWriteItem.builder().conditionCheck(unchangedCheck.build()).build();
+
+        for (int from = 0; from < normalizedLabels.size(); from += MAX_TRANSACT_ITEMS - 1) {
+            List<TransactWriteItem> transactItems = new ArrayList<>();
+            transactItems.add(unchanged);
+            for (String label : normalizedLabels.subList(from, Math.min(from + MAX_TRANSACT_ITEMS - 1, normalizedLabels.size()))) {
+                transactItems.add(TransactWriteItem.builder()
+                        .put(Put.builder().tableName(postingTableName).item(postingKey(label, key)).build())
+                        .build());
+            }
+            if (!transactWrite(key, transactItems)) {
+                return false;
+            }
+        }
+
+        BatchWriteBuffer writes = new BatchWriteBuffer(dynamoDbClient);
+        putLabelGrams(key, normalizedLabels, writes);
+        if (!writes.flush().isEmpty()) {
+            REGISTERED_LABELS.removeAll(normalizedLabels);
+            throw new IllegalStateException("Error writing the n-grams of the labels of image: " + key);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the transaction and returns false when it was cancelled because the item was indexed from a
+     * newer event; any other failure is thrown.
+     */
+    private boolean transactWrite(String key, List<TransactWriteItem> transactItems) {
+        try {
+            dynamoDbClient.transactWriteItems(TransactWriteItemsRequest.builder()
+                    .transactItems(transactItems)
+                    .build());
+            return true;
+        } catch (TransactionCanceledException e) {
+            boolean superseded = e.hasCancellationReasons() && e.cancellationReasons().stream()
+                    .anyMatch(reason -> "ConditionalCheckFailed".equals(reason.code()));
+            if (!superseded) {
+                throw e;
+            }
+            logger.info("Skipping out-of-order event, a newer event is already indexed for image: {}", key);
+            return false;
+        }
+    }
+
+    private final class DynamoDbWriteBatch implements WriteBatch {
+
+        private final BatchWriteBuffer writes;
+
+        private DynamoDbWriteBatch(BatchWriteBuffer writes) {
+            this.writes = writes;
+        }
+
+        @Override
+        public void put(IndexedImage image) {
+            writes.add(image.imageId(), tableName, imageKey(image.imageId()), putRequest(item(image)));
+
+            if (hasPostingTable()) {
+                putLabelPostings(image.imageId(), image.labels(), writes);
+            }
+        }
+
+        @Override
+        public void cacheLabels(String owner, String contentHash, List<String> labels) {
+            if (!hasLabelCache()) {
+                return;
+            }
+            Map<String, AttributeValue> cacheItem = new HashMap<>();
+            cacheItem.put("contentHash", AttributeValue.fromS(contentHash));
+            if (!labels.isEmpty()) {
+                cacheItem.put("labels", AttributeValue.fromSs(labels));
+            }
+            writes.add(owner, labelCacheTableName, Map.of("contentHash", AttributeValue.fromS(contentHash)),
+                    putRequest(cacheItem));
+        }
+
+        @Override
+        public Set<String> flush() {
+            Set<String> failedOwners = writes.flush();
+            if (!failedOwners.isEmpty()) {
+                // Some gram writes may be among the failures; forget what was registered so they get rewritten.
+                REGISTERED_LABELS.clear();
+            }
+            return failedOwners;
+        }
+    }
+
+    /**
+     * Queues one label -> imageId posting per distinct normalized label, and the n-grams of labels not yet
+     * registered by this container when there is a gram table.
+     */
+    private void putLabelPostings(String key, List<String> labels, BatchWriteBuffer writes) {
+        List<String> normalizedLabels = normalizedLabels(labels);
+
+        for (String label : normalizedLabels) {
+            Map<String, AttributeValue> posting = postingKey(label, key);
+            writes.add(key, postingTableName, posting, putRequest(posting));
+        }
+
+        if (hasGramTable()) {
+            putLabelGrams(key, normalizedLabels, writes);
+        }
+    }
+
+    private void putLabelGrams(String key, List<String> normalizedLabels, BatchWriteBuffer writes) {
+        List<String> newLabels = normalizedLabels.stream()
+                .filter(REGISTERED_LABELS::add)
+                .toList();
+        if (newLabels.isEmpty()) {
+            return;
+        }
+
+        for (String label : newLabels) {
+            for (String gram : NGramIndex.grams(label, ngramSize)) {
+                Map<String, AttributeValue> gramItem = Map.of(
+                        "gram", AttributeValue.fromS(gram),
+                        "label", AttributeValue.fromS(label)
+                );
+                writes.add(key, gramTableName, gramItem, putRequest(gramItem));
+            }
+        }
+        logger.info("Queued n-grams for {} new labels", newLabels.size());
+    }
+
+    private boolean hasPostingTable() {
+        return nonNull(postingTableName) && !postingTableName.isEmpty();
+    }
+
+    private boolean hasGramTable() {
+        return nonNull(gramTableName) && !gramTableName.isEmpty();
+    }
+
+    private boolean hasUpdatedIndex() {
+        return nonNull(updatedIndexName) && !updatedIndexName.isEmpty();
+    }
+
+    private static Map<String, AttributeValue> item(IndexedImage image) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("imageId", AttributeValue.fromS(image.imageId()));
+        // DynamoDB rejects empty string sets, and one invalid item would fail its whole batch.
+        if (!image.labels().isEmpty()) {
+            item.put("labels", AttributeValue.fromSs(image.labels()));
+        }
+        item.put("timestamp", AttributeValue.fromN(String.valueOf(image.timestamp())));
+        item.put("updatedBucket", AttributeValue.fromN(String.valueOf(image.timestamp() / UPDATED_BUCKET_SECONDS)));
+        if (nonNull(image.eTag())) {
+            item.put("eTag", AttributeValue.fromS(image.eTag()));
+        }
+        if (nonNull(image.versionId())) {
+            item.put("versionId", AttributeValue.fromS(image.versionId()));
+        }
+        if (nonNull(image.sequencer())) {
+            item.put("sequencer", AttributeValue.fromS(image.sequencer()));
+        }
+        if (!image.derivatives().isEmpty()) {
+            Map<String, AttributeValue> derivatives = new LinkedHashMap<>();
+            image.derivatives().forEach((size, derivative) -> derivatives.put(size, AttributeValue.fromM(Map.of(
+                    "key", AttributeValue.fromS(derivative.key()),
+                    "width", AttributeValue.fromN(String.valueOf(derivative.width())),
+                    "height", AttributeValue.fromN(String.valueOf(derivative.height())),
+                    "bytes", AttributeValue.fromN(String.valueOf(derivative.bytes()))
+            ))));
+            item.put("derivatives", AttributeValue.fromM(derivatives));
+        }
+        return item;
+    }
+
+    private static Map<String, AttributeValue> tombstone(String imageId, String sequencer) {
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("imageId", AttributeValue.fromS(imageId));
+        item.put("removed", AttributeValue.fromBool(true));
+        item.put("timestamp", AttributeValue.fromN(String.valueOf(now)));
+        item.put("updatedBucket", AttributeValue.fromN(String.valueOf(now / UPDATED_BUCKET_SECONDS)));
+        item.put("expiresAt", AttributeValue.fromN(String.valueOf(now + TOMBSTONE_TTL_SECONDS)));
+        if (nonNull(sequencer)) {
+            item.put("sequencer", AttributeValue.fromS(sequencer));
+        }
+        return item;
+    }
+
+    private static boolean isRemoved(Map<String, AttributeValue> item) {
+        AttributeValue removed = item.get("removed");
+        return nonNull(removed) && Boolean.TRUE.equals(removed.bool());
+    }
+
+    private static IndexedImage toImage(Map<String, AttributeValue> item) {
+        Map<String, IndexedImage.Derivative> derivatives = new LinkedHashMap<>();
+        AttributeValue derivativesAttribute = item.get("derivatives");
+        if (nonNull(derivativesAttribute) && derivativesAttribute.hasM()) {
+            derivativesAttribute.m().forEach((size, derivative) -> {
+                String key = derivative.hasM() ? stringAttribute(derivative.m(), "key") : null;
+                if (nonNull(key)) {
+                    derivatives.put(size, new IndexedImage.Derivative(key,
+                            (int) numberAttribute(derivative.m(), "width"),
+                            (int) numberAttribute(derivative.m(), "height"),
+                            numberAttribute(derivative.m(), "bytes")));
+                }
+            });
+        }
+
+        return new IndexedImage(
+                stringAttribute(item, "imageId"),
+                labelsOf(item),
+                stringAttribute(item, "eTag"),
+                stringAttribute(item, "versionId"),
+                stringAttribute(item, "sequencer"),
+                derivatives,
+                numberAttribute(item, "timestamp")
+        );
+    }
+
+    private static List<String> labelsOf(Map<String, AttributeValue> item) {
+        AttributeValue labels = item.get("labels");
+        return nonNull(labels) && labels.hasSs() ? labels.ss() : List.of();
+    }
+
+    private static List<String> normalizedLabels(List<String> labels) {
+        return labels.stream()
+                .map(String::toLowerCase)
+                .distinct()
+                .toList();
+    }
+
+    private static Map<String, AttributeValue> imageKey(String imageId) {
+        return Map.of("imageId", AttributeValue.fromS(imageId));
+    }
+
+    private static Map<String, AttributeValue> postingKey(String label, String key) {
+        return Map.of(
+                "label", AttributeValue.fromS(label),
+                "imageId", AttributeValue.fromS(key)
+        );
+    }
+
+    private TransactWriteItem deletePosting(String label, String key) {
+        return TransactWriteItem.builder()
+                .delete(Delete.builder().tableName(postingTableName).key(postingKey(label, key)).build())
+                .build();
+    }
+
+    private static WriteRequest putRequest(Map<String, AttributeValue> item) {
+        return WriteRequest.builder()
+                .putRequest(PutRequest.builder().item(item).build())
+                .build();
+    }
+
+    private static WriteRequest deleteRequest(Map<String, AttributeValue> key) {
+        return WriteRequest.builder()
+                .deleteRequest(DeleteRequest.builder().key(key).build())
+                .build();
+    }
+
+    private static String stringAttribute(Map<String, AttributeValue> item, String name) {
+        AttributeValue attribute = item.get(name);
+        return nonNull(attribute) ? attribute.s() : null;
+    }
+
+    private static long numberAttribute(Map<String, AttributeValue> item, String name) {
+        AttributeValue attribute = item.get(name);
+        return nonNull(attribute) && nonNull(attribute.n()) ? Long.parseLong(attribute.n()) : 0;
+    }
+}
@@ -0,0 +1,33 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Typed reads of the environment variables that configure the functions.
+ */
+public final class Environment {
+
+    private static final Logger logger = LoggerFactory.getLogger(Environment.class);
+
+    private Environment() {
+    }
+
+    /**
+     * The integer value of {@code name}, or {@code defaultValue} when it is unset, blank or not a number.
+     */
+    public static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (isNull(value) || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+}
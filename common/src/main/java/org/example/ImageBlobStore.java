@@ -0,0 +1,59 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * The objects of one bucket: uploaded images and their derivatives. Implementations must be safe for
+ * concurrent use.
+ */
+public interface ImageBlobStore {
+
+    /**
+     * An opened object. {@code contentType} is null when the store does not know it.
+     */
+    record Blob(InputStream content, String contentType) implements Closeable {
+
+        @Override
+        public void close() throws IOException {
+            content.close();
+        }
+    }
+
+    /**
+     * A URL that grants read access to an object until {@code expiresAt}.
+     */
+    record Link(String url, Instant expiresAt) {}
+
+    /**
+     * The size of the object in bytes, or empty when there is no object under {@code key}.
+     */
+    OptionalLong size(String key);
+
+    /**
+     * Opens the object for reading; the caller closes the returned blob.
+     *
+     * @throws java.util.NoSuchElementException when there is no object under {@code key}
+     */
+    Blob open(String key);
+
+    /**
+     * At most the first {@code length} bytes of the object, fewer (possibly none) for a shorter one, or
+     * empty when there is no object under {@code key}.
+     */
+    Optional<byte[]> readPrefix(String key, int length);
+
+    void put(String key, byte[] content, String contentType);
+
+    /**
+     * Deletes the object; deleting a missing object is not an error.
+     */
+    void delete(String key);
+
+    Link presign(String key, Duration ttl);
+}
@@ -0,0 +1,67 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+
+/**
+ * {@link ImageBlobStore} kept in a map, for running the handlers locally and in benchmarks without S3.
+ * Presigned links use the {@code memory:} scheme and cannot be fetched.
+ */
+public class InMemoryImageBlobStore implements ImageBlobStore {
+
+    private record StoredBlob(byte[] content, String contentType) {}
+
+    private final Map<String, StoredBlob> blobs = new ConcurrentHashMap<>();
+
+    @Override
+    public OptionalLong size(String key) {
+        StoredBlob blob = blobs.get(key);
+        return isNull(blob) ? OptionalLong.empty() : OptionalLong.of(blob.content().length);
+    }
+
+    @Override
+    public Blob open(String key) {
+        StoredBlob blob = blobs.get(key);
+        if (isNull(blob)) {
+            throw new NoSuchElementException("No object " + key);
+        }
+        return new Blob(new ByteArrayInputStream(blob.content()), blob.contentType());
+    }
+
+    @Override
+    public Optional<byte[]> readPrefix(String key, int length) {
+        StoredBlob blob = blobs.get(key);
+        if (isNull(blob)) {
+            return Optional.empty();
+        }
+        return Optional.of(Arrays.copyOf(blob.content(), Math.min(length, blob.content().length)));
+    }
+
+    @Override
+    public void put(String key, byte[] content, String contentType) {
+        blobs.put(key, new StoredBlob(content.clone(), contentType));
+    }
+
+    @Override
+    public void delete(String key) {
+        blobs.remove(key);
+    }
+
+    @Override
+    public Link presign(String key, Duration ttl) {
+        return new Link("memory:" + key, Instant.now().plus(ttl));
+    }
+
+    public int count() {
+        return blobs.size();
+    }
+}
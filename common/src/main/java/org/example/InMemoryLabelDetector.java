@@ -0,0 +1,40 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LabelDetector} with fixed answers, for running the handlers locally and in benchmarks without
+ * Rekognition: the labels configured for a key, or {@code defaultLabels} for any other key and for bytes.
+ */
+public class InMemoryLabelDetector implements LabelDetector {
+
+    private final Map<String, List<String>> labelsByKey;
+    private final List<String> defaultLabels;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public InMemoryLabelDetector(Map<String, List<String>> labelsByKey, List<String> defaultLabels) {
+        this.labelsByKey = Map.copyOf(labelsByKey);
+        this.defaultLabels = List.copyOf(defaultLabels);
+    }
+
+    @Override
+    public List<String> detectLabels(ImageBlobStore store, String key) {
+        calls.incrementAndGet();
+        return labelsByKey.getOrDefault(key, defaultLabels);
+    }
+
+    @Override
+    public List<String> detectLabels(byte[] image) {
+        calls.incrementAndGet();
+        return defaultLabels;
+    }
+
+    /**
+     * The number of detections made so far, to check how often label caching avoided one.
+     */
+    public int calls() {
+        return calls.get();
+    }
+}
@@ -0,0 +1,168 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * {@link LabelIndex} kept in memory, for running the handlers locally and in benchmarks without DynamoDB.
+ * Queries are evaluated with {@link LabelQuery#matches} against every image, like the table scan fallback.
+ * Batched writes become visible when the batch is flushed, and never fail.
+ */
+public class InMemoryLabelIndex implements LabelIndex {
+
+    private final NavigableMap<String, IndexedImage> images = new TreeMap<>();
+    private final Map<String, List<String>> labelCache = new HashMap<>();
+    // Epoch second of the removal of each image removed and not indexed again since.
+    private final Map<String, Long> removedImages = new HashMap<>();
+    private final boolean labelCacheEnabled;
+
+    public InMemoryLabelIndex() {
+        this(true);
+    }
+
+    public InMemoryLabelIndex(boolean labelCacheEnabled) {
+        this.labelCacheEnabled = labelCacheEnabled;
+    }
+
+    /**
+     * Indexes {@code image} directly, replacing any image with the same id.
+     */
+    public synchronized void put(IndexedImage image) {
+        images.put(image.imageId(), image);
+        removedImages.remove(image.imageId());
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    @Override
+    public synchronized List<String> findImages(LabelQuery query, String after, int maxResults) {
+        List<String> imageIds = new ArrayList<>();
+        for (IndexedImage image : (isNull(after) ? images : images.tailMap(after, false)).values()) {
+            if (query.matches(image.labels())) {
+                imageIds.add(image.imageId());
+                if (imageIds.size() >= maxResults) {
+                    break;
+                }
+            }
+        }
+        return imageIds;
+    }
+
+    @Override
+    public synchronized List<IndexedImage> imagesUpdatedSince(long epochSecond) {
+        return images.values().stream()
+                .filter(image -> image.timestamp() >= epochSecond)
+                .toList();
+    }
+
+    @Override
+    public synchronized List<String> imagesRemovedSince(long epochSecond) {
+        return removedImages.entrySet().stream()
+                .filter(removed -> removed.getValue() >= epochSecond)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @Override
+    public synchronized Optional<IndexedImage> findImage(String imageId) {
+        return Optional.ofNullable(images.get(imageId));
+    }
+
+    @Override
+    public synchronized Map<String, IndexedImage> getImages(Collection<String> imageIds) {
+        Map<String, IndexedImage> found = new HashMap<>();
+        for (String imageId : imageIds) {
+            IndexedImage image = images.get(imageId);
+            if (nonNull(image)) {
+                found.put(imageId, image);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean hasLabelCache() {
+        return labelCacheEnabled;
+    }
+
+    @Override
+    public synchronized Optional<List<String>> cachedLabels(String contentHash) {
+        return Optional.ofNullable(labelCache.get(contentHash));
+    }
+
+    @Override
+    public WriteBatch newBatch() {
+        return new InMemoryWriteBatch();
+    }
+
+    @Override
+    public synchronized boolean replace(IndexedImage image, IndexedImage previous, WriteBatch batch) {
+        IndexedImage current = images.get(image.imageId());
+        if (nonNull(current) && !isOlder(current.sequencer(), image.sequencer())) {
+            return false;
+        }
+        put(image);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(IndexedImage previous, String sequencer, WriteBatch batch) {
+        IndexedImage current = images.get(previous.imageId());
+        if (nonNull(current) && !isOlder(current.sequencer(), sequencer)) {
+            return false;
+        }
+        images.remove(previous.imageId());
+        removedImages.put(previous.imageId(), System.currentTimeMillis() / 1000);
+        return true;
+    }
+
+    /**
+     * The condition the DynamoDB index puts on overwrites: no stored sequencer, or an older one.
+     */
+    private static boolean isOlder(String stored, String sequencer) {
+        return isNull(sequencer) || isNull(stored) || stored.compareTo(sequencer) < 0;
+    }
+
+    private final class InMemoryWriteBatch implements WriteBatch {
+
+        private final List<IndexedImage> puts = new ArrayList<>();
+        private final Map<String, List<String>> cachedLabels = new HashMap<>();
+
+        @Override
+        public synchronized void put(IndexedImage image) {
+            puts.add(image);
+        }
+
+        @Override
+        public synchronized void cacheLabels(String owner, String contentHash, List<String> labels) {
+            if (labelCacheEnabled) {
+                cachedLabels.put(contentHash, List.copyOf(labels));
+            }
+        }
+
+        @Override
+        public Set<String> flush() {
+            synchronized (InMemoryLabelIndex.this) {
+                synchronized (this) {
+                    puts.forEach(InMemoryLabelIndex.this::put);
+                    labelCache.putAll(cachedLabels);
+                    puts.clear();
+                    cachedLabels.clear();
+                }
+            }
+            return Set.of();
+        }
+    }
+}
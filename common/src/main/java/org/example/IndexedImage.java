@@ -0,0 +1,36 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the index knows about one image: its labels, the source version and S3 sequencer it was indexed
+ * from, and its derivatives keyed by size. {@code timestamp} is the time of indexing in epoch seconds.
+ * Fields other than {@code imageId}, {@code labels} and {@code timestamp} are null or empty when not known.
+ */
+public record IndexedImage(String imageId,
+                           List<String> labels,
+                           String eTag,
+                           String versionId,
+                           String sequencer,
+                           Map<String, Derivative> derivatives,
+                           long timestamp) {
+
+    public IndexedImage {
+        labels = labels == null ? List.of() : List.copyOf(labels);
+        derivatives = derivatives == null ? Map.of() : Map.copyOf(derivatives);
+    }
+
+    /**
+     * A JPEG rendition of an image stored next to it under {@code key}.
+     */
+    public record Derivative(String key, int width, int height, long bytes) {
+
+        /**
+         * The key of the {@code size} rendition of {@code imageId}: {@code <prefix><size>/<imageId>.jpg}.
+         */
+        public static String keyFor(String prefix, String size, String imageId) {
+            return prefix + size + "/" + imageId + ".jpg";
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * Detects the labels of an image, either by reference to a stored object or from encoded image bytes.
+ */
+public interface LabelDetector {
+
+    List<String> detectLabels(ImageBlobStore store, String key);
+
+    List<String> detectLabels(byte[] image);
+
+    /**
+     * Whether {@code e} means the detector is overloaded and the call may succeed when retried later.
+     */
+    default boolean isThrottling(RuntimeException e) {
+        return false;
+    }
+}
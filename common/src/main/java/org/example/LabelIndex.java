@@ -0,0 +1,88 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The labels of indexed images: what search queries and what the upload function maintains.
+ * Implementations must be safe for concurrent use.
+ * <p>
+ * New images are written through a {@link WriteBatch}. Overwrites and removals are applied immediately and
+ * are ordered by the S3 sequencer of the event that caused them, so an event delivered out of order cannot
+ * undo the work of a newer one.
+ */
+public interface LabelIndex {
+
+    /**
+     * Ids of images matching {@code query} that sort after {@code after} (all when null). The first
+     * {@code maxResults} matches in key order are always included; implementations may return more, in
+     * any order.
+     */
+    List<String> findImages(LabelQuery query, String after, int maxResults);
+
+    /**
+     * Images indexed at or after {@code epochSecond}, all images for 0. Only {@code imageId},
+     * {@code labels} and {@code timestamp} are guaranteed to be filled in.
+     */
+    List<IndexedImage> imagesUpdatedSince(long epochSecond);
+
+    /**
+     * Ids of images removed at or after {@code epochSecond} and not indexed again since, so a copy kept
+     * current with {@link #imagesUpdatedSince} can drop them as well.
+     */
+    List<String> imagesRemovedSince(long epochSecond);
+
+    /**
+     * The indexed image with this id, read consistently, or empty when it is not indexed.
+     */
+    Optional<IndexedImage> findImage(String imageId);
+
+    /**
+     * The indexed images with these ids, by id, read with eventual consistency; ids that are not indexed
+     * are left out. Only {@code imageId} and {@code derivatives} are guaranteed to be filled in.
+     */
+    Map<String, IndexedImage> getImages(Collection<String> imageIds);
+
+    /**
+     * Whether labels can be cached by content hash; when false {@link #cachedLabels} is always empty and
+     * {@link WriteBatch#cacheLabels} does nothing.
+     */
+    boolean hasLabelCache();
+
+    Optional<List<String>> cachedLabels(String contentHash);
+
+    WriteBatch newBatch();
+
+    /**
+     * Atomically replaces {@code previous} with {@code image}. Returns false when an event newer than the
+     * one {@code image} was built from is already indexed, and nothing was changed.
+     */
+    boolean replace(IndexedImage image, IndexedImage previous, WriteBatch batch);
+
+    /**
+     * Atomically removes {@code previous} unless it was indexed from an event newer than the one with
+     * {@code sequencer} (null removes unconditionally). Returns false when nothing was removed.
+     */
+    boolean remove(IndexedImage previous, String sequencer, WriteBatch batch);
+
+    /**
+     * Writes buffered by the records of one invocation and applied together. Every write names the key it
+     * was made for, so a failure is reported against that key only.
+     */
+    interface WriteBatch {
+
+        void put(IndexedImage image);
+
+        void cacheLabels(String owner, String contentHash, List<String> labels);
+
+        /**
+         * Applies the buffered writes.
+         *
+         * @return the owners of writes that could not be applied
+         */
+        Set<String> flush();
+    }
+}
@@ -0,0 +1,203 @@
+package org.example;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+
+import java.util.*;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Reads the inverted index written by the upload handler.
+ * <p>
+ * The posting table (partition key {@code label}, sort key {@code imageId}) maps each normalized label to
+ * its images. The optional gram table (partition key {@code gram}, sort key {@code label}) maps label
+ * n-grams to vocabulary labels and is what allows substring queries to be resolved with key lookups.
+ * Without a gram table only exact labels would match, so {@link DynamoDbLabelIndex} only queries these
+ * tables once both exist and are backfilled.
+ */
+class LabelIndexTable {
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String postingTableName;
+    private final String gramTableName;
+    private final int ngramSize;
+
+    LabelIndexTable(DynamoDbClient dynamoDbClient, String postingTableName, String gramTableName, int ngramSize) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.postingTableName = postingTableName;
+        this.gramTableName = gramTableName;
+        this.ngramSize = ngramSize;
+    }
+
+    /**
+     * Evaluates {@code query} with one posting lookup per term. Returns an empty {@link Optional} when the
+     * query needs the set of all images (a bare {@code NOT}), which the index cannot enumerate.
+     * <p>
+     * A single-term query reads at most {@code maxResults} postings per label, starting after {@code after},
+     * and returns the first {@code maxResults} image ids in key order. Compound queries need complete posting
+     * lists to be correct, so the bounds only apply to their final result.
+     */
+    Optional<List<String>> findImages(LabelQuery query, String after, int maxResults) {
+        if (query.needsUniverse()) {
+            return Optional.empty();
+        }
+        try {
+            if (query instanceof LabelQuery.Term term) {
+                Set<String> imageIds = new TreeSet<>();
+                for (String label : resolveLabels(term.text())) {
+                    imageIds.addAll(queryPostings(label, after, maxResults));
+                }
+                return Optional.of(imageIds.stream().limit(maxResults).toList());
+            }
+
+            Set<String> imageIds = query.evaluate(new LabelQuery.Evaluator<>() {
+                @Override
+                public Set<String> term(String text) {
+                    return findImagesByTerm(text);
+                }
+
+                @Override
+                public Set<String> and(Set<String> left, Set<String> right) {
+                    left.retainAll(right);
+                    return left;
+                }
+
+                @Override
+                public Set<String> or(Set<String> left, Set<String> right) {
+                    left.addAll(right);
+                    return left;
+                }
+
+                @Override
+                public Set<String> andNot(Set<String> left, Set<String> right) {
+                    left.removeAll(right);
+                    return left;
+                }
+
+                @Override
+                public Set<String> universe() {
+                    throw new IllegalStateException("Label index cannot enumerate all images");
+                }
+            });
+            return Optional.of(imageIds.stream()
+                    .filter(imageId -> isNull(after) || imageId.compareTo(after) > 0)
+                    .sorted()
+                    .limit(maxResults)
+                    .toList());
+        } catch (DynamoDbException e) {
+            throw new RuntimeException("Error querying label index: " + e.getMessage(), e);
+        }
+    }
+
+    private Set<String> findImagesByTerm(String term) {
+        Set<String> imageIds = new LinkedHashSet<>();
+        for (String label : resolveLabels(term)) {
+            imageIds.addAll(queryPostings(label, null, Integer.MAX_VALUE));
+        }
+        return imageIds;
+    }
+
+    private Collection<String> resolveLabels(String term) {
+        return hasGramTable() ? findLabels(term) : List.of(term);
+    }
+
+    /**
+     * Resolves the vocabulary labels containing {@code query} by intersecting the label sets of its
+     * n-grams, then verifying each candidate. Queries shorter than a gram have no gram to look up and
+     * fall back to reading the (vocabulary-sized) gram table.
+     */
+    private Collection<String> findLabels(String query) {
+        if (query.length() < ngramSize) {
+            Set<String> labels = new TreeSet<>();
+            ScanRequest scanRequest = ScanRequest.builder()
+                    .tableName(gramTableName)
+                    .projectionExpression("#label")
+                    .expressionAttributeNames(Map.of("#label", "label"))
+                    .build();
+            for (Map<String, AttributeValue> item : dynamoDbClient.scanPaginator(scanRequest).items()) {
+                String label = stringAttribute(item, "label");
+                if (nonNull(label) && label.contains(query)) {
+                    labels.add(label);
+                }
+            }
+            return labels;
+        }
+
+        Set<String> candidates = null;
+        for (String gram : NGramIndex.grams(query, ngramSize)) {
+            Set<String> labels = queryStrings(gramTableName, "gram", gram, "label", null, Integer.MAX_VALUE);
+            if (isNull(candidates)) {
+                candidates = labels;
+            } else {
+                candidates.retainAll(labels);
+            }
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+        }
+        candidates.removeIf(label -> !label.contains(query));
+        return candidates;
+    }
+
+    private Set<String> queryPostings(String label, String after, int maxResults) {
+        return queryStrings(postingTableName, "label", label, "imageId", after, maxResults);
+    }
+
+    /**
+     * Reads the sort key values ({@code attributeName}) under one partition key, in key order, starting
+     * after {@code after} when given and stopping once {@code maxResults} values have been read.
+     */
+    private Set<String> queryStrings(String tableName,
+                                     String keyName,
+                                     String keyValue,
+                                     String attributeName,
+                                     String after,
+                                     int maxResults) {
+        QueryRequest.Builder queryRequest = QueryRequest.builder()
+                .tableName(tableName)
+                .projectionExpression("#attribute");
+        if (isNull(after)) {
+            queryRequest
+                    .keyConditionExpression("#key = :value")
+                    .expressionAttributeNames(Map.of("#key", keyName, "#attribute", attributeName))
+                    .expressionAttributeValues(Map.of(":value", AttributeValue.fromS(keyValue)));
+        } else {
+            queryRequest
+                    .keyConditionExpression("#key = :value AND #attribute > :after")
+                    .expressionAttributeNames(Map.of("#key", keyName, "#attribute", attributeName))
+                    .expressionAttributeValues(Map.of(
+                            ":value", AttributeValue.fromS(keyValue),
+                            ":after", AttributeValue.fromS(after)
+                    ));
+        }
+        if (maxResults < Integer.MAX_VALUE) {
+            queryRequest.limit(maxResults);
+        }
+
+        Set<String> values = new LinkedHashSet<>();
+        for (Map<String, AttributeValue> item : dynamoDbClient.queryPaginator(queryRequest.build()).items()) {
+            String value = stringAttribute(item, attributeName);
+            if (nonNull(value)) {
+                values.add(value);
+            }
+            if (values.size() >= maxResults) {
+                break;
+            }
+        }
+        return values;
+    }
+
+    private boolean hasGramTable() {
+        return nonNull(gramTableName) && !gramTableName.isEmpty();
+    }
+
+    private static String stringAttribute(Map<String, AttributeValue> item, String name) {
+        AttributeValue attribute = item.get(name);
+        return nonNull(attribute) ? attribute.s() : null;
+    }
+}
@@ -0,0 +1,279 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Boolean label query such as {@code dog AND beach NOT night}.
+ * <p>
+ * Operators are the upper-case words {@code AND}, {@code OR} and {@code NOT}; adjacent terms are joined
+ * with an implicit {@code AND}, parentheses group, and double quotes keep a multi-word label together
+ * ({@code "hot dog"}). A term matches an image if any of its labels contains the term, ignoring case.
+ * A query without operators, parentheses or quotes is a single term, so plain keywords such as
+ * {@code hot dog} keep matching exactly as before. So is a query without operators whose quotes or
+ * parentheses do not balance, such as {@code 6" ruler}.
+ */
+public sealed interface LabelQuery {
+
+    record Term(String text) implements LabelQuery {}
+
+    record And(List<LabelQuery> operands) implements LabelQuery {}
+
+    record Or(List<LabelQuery> operands) implements LabelQuery {}
+
+    record Not(LabelQuery operand) implements LabelQuery {}
+
+    /**
+     * Set algebra used to evaluate a query over some representation of image sets.
+     */
+    interface Evaluator<T> {
+
+        T term(String text);
+
+        T and(T left, T right);
+
+        T or(T left, T right);
+
+        T andNot(T left, T right);
+
+        /**
+         * All images; only needed for a negation that is not part of a conjunction with a positive operand.
+         */
+        T universe();
+    }
+
+    static LabelQuery parse(String query) {
+        return new Parser(query).parse();
+    }
+
+    /**
+     * Evaluates the query, rewriting {@code a AND NOT b} as a difference so the universe is only
+     * requested for a negation with nothing to subtract it from.
+     */
+    default <T> T evaluate(Evaluator<T> evaluator) {
+        if (this instanceof Term term) {
+            return evaluator.term(term.text());
+        }
+        if (this instanceof Or or) {
+            T result = null;
+            for (LabelQuery operand : or.operands()) {
+                T value = operand.evaluate(evaluator);
+                result = result == null ? value : evaluator.or(result, value);
+            }
+            return result;
+        }
+        if (this instanceof Not not) {
+            return evaluator.andNot(evaluator.universe(), not.operand().evaluate(evaluator));
+        }
+
+        And and = (And) this;
+        T result = null;
+        List<LabelQuery> negated = new ArrayList<>();
+        for (LabelQuery operand : and.operands()) {
+            if (operand instanceof Not not) {
+                negated.add(not.operand());
+            } else {
+                T value = operand.evaluate(evaluator);
+                result = result == null ? value : evaluator.and(result, value);
+            }
+        }
+        if (result == null) {
+            result = evaluator.universe();
+        }
+        for (LabelQuery operand : negated) {
+            result = evaluator.andNot(result, operand.evaluate(evaluator));
+        }
+        return result;
+    }
+
+    /**
+     * Whether {@link #evaluate} would request the {@link Evaluator#universe() universe}, so evaluators that
+     * cannot enumerate all images can turn such a query down before evaluating anything.
+     */
+    default boolean needsUniverse() {
+        if (this instanceof Term) {
+            return false;
+        }
+        if (this instanceof Or or) {
+            return or.operands().stream().anyMatch(LabelQuery::needsUniverse);
+        }
+        if (this instanceof Not) {
+            return true;
+        }
+        List<LabelQuery> operands = ((And) this).operands();
+        return operands.stream().allMatch(operand -> operand instanceof Not)
+                || operands.stream()
+                        .map(operand -> operand instanceof Not not ? not.operand() : operand)
+                        .anyMatch(LabelQuery::needsUniverse);
+    }
+
+    /**
+     * Tests the query against the labels of a single image.
+     */
+    default boolean matches(Collection<String> labels) {
+        if (this instanceof Term term) {
+            return labels.stream().anyMatch(label -> label.toLowerCase().contains(term.text()));
+        }
+        if (this instanceof And and) {
+            return and.operands().stream().allMatch(operand -> operand.matches(labels));
+        }
+        if (this instanceof Or or) {
+            return or.operands().stream().anyMatch(operand -> operand.matches(labels));
+        }
+        return !((Not) this).operand().matches(labels);
+    }
+
+    final class Parser {
+
+        private final List<String> tokens;
+        private int position;
+
+        private Parser(String query) {
+            this.tokens = tokenize(query);
+        }
+
+        private LabelQuery parse() {
+            if (tokens.isEmpty()) {
+                throw new IllegalArgumentException("Query is empty");
+            }
+            LabelQuery query = parseOr();
+            if (position < tokens.size()) {
+                throw new IllegalArgumentException("Unexpected token in query: " + tokens.get(position));
+            }
+            return query;
+        }
+
+        private LabelQuery parseOr() {
+            List<LabelQuery> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (accept("OR")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(List.copyOf(operands));
+        }
+
+        private LabelQuery parseAnd() {
+            List<LabelQuery> operands = new ArrayList<>();
+            operands.add(parseNot());
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                accept("AND");
+                operands.add(parseNot());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(List.copyOf(operands));
+        }
+
+        private LabelQuery parseNot() {
+            if (accept("NOT")) {
+                return new Not(parseNot());
+            }
+            if (accept("(")) {
+                LabelQuery query = parseOr();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing closing parenthesis in query");
+                }
+                return query;
+            }
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Query ends with an operator");
+            }
+            String token = tokens.get(position++);
+            if (isReserved(token)) {
+                throw new IllegalArgumentException("Unexpected token in query: " + token);
+            }
+            return new Term(unquote(token).toLowerCase());
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean isReserved(String token) {
+            return token.equals("AND") || token.equals("OR") || token.equals("NOT")
+                    || token.equals("(") || token.equals(")");
+        }
+
+        private static String unquote(String token) {
+            if (token.length() >= 2 && token.startsWith("\"") && token.endsWith("\"")) {
+                return token.substring(1, token.length() - 1);
+            }
+            return token;
+        }
+
+        private static List<String> tokenize(String query) {
+            String trimmed = query.trim();
+            if (!isExpression(trimmed)) {
+                return trimmed.isEmpty() ? List.of() : List.of("\"" + trimmed + "\"");
+            }
+
+            List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < trimmed.length()) {
+                char c = trimmed.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '"') {
+                    int end = trimmed.indexOf('"', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated quote in query");
+                    }
+                    if (end == i + 1) {
+                        throw new IllegalArgumentException("Empty quoted term in query");
+                    }
+                    tokens.add(trimmed.substring(i, end + 1));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < trimmed.length()
+                            && !Character.isWhitespace(trimmed.charAt(i))
+                            && "()\"".indexOf(trimmed.charAt(i)) < 0) {
+                        i++;
+                    }
+                    tokens.add(trimmed.substring(start, i));
+                }
+            }
+            return tokens;
+        }
+
+        /**
+         * Whether the query uses operators, or quotes and parentheses that all balance; anything else is
+         * a plain keyword, quote and parenthesis characters included.
+         */
+        private static boolean isExpression(String query) {
+            for (String word : query.split("\\s+")) {
+                if (word.equals("AND") || word.equals("OR") || word.equals("NOT")) {
+                    return true;
+                }
+            }
+            boolean grouped = query.indexOf('(') >= 0 || query.indexOf(')') >= 0 || query.indexOf('"') >= 0;
+            return grouped && isBalanced(query);
+        }
+
+        private static boolean isBalanced(String query) {
+            boolean quoted = false;
+            int depth = 0;
+            for (int i = 0; i < query.length() && depth >= 0; i++) {
+                char c = query.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && c == '(') {
+                    depth++;
+                } else if (!quoted && c == ')') {
+                    depth--;
+                }
+            }
+            return !quoted && depth == 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import java.util.*;
+
+/**
+ * Substring index over a label vocabulary. Every label is broken into its character n-grams and each
+ * gram maps to a sorted {@code int[]} of label ordinals. A query is answered by intersecting the posting
+ * lists of its own grams and verifying the few surviving candidates with {@link String#contains}, so the
+ * result is exactly what a linear {@code contains} over the vocabulary would return.
+ * <p>
+ * Instances are immutable; rebuild when the vocabulary changes.
+ */
+class NGramIndex {
+
+    private static final int[] NO_LABELS = new int[0];
+
+    private final int n;
+    private final String[] labels;
+    private final Map<String, int[]> postings;
+
+    NGramIndex(Collection<String> vocabulary, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        this.n = n;
+        this.labels = vocabulary.stream().distinct().sorted().toArray(String[]::new);
+
+        Map<String, List<Integer>> building = new HashMap<>();
+        for (int ordinal = 0; ordinal < labels.length; ordinal++) {
+            for (String gram : grams(labels[ordinal], n)) {
+                building.computeIfAbsent(gram, key -> new ArrayList<>()).add(ordinal);
+            }
+        }
+
+        this.postings = new HashMap<>(building.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : building.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Returns every vocabulary label containing {@code query}.
+     */
+    List<String> find(String query) {
+        if (query.length() < n) {
+            List<String> matches = new ArrayList<>();
+            for (String label : labels) {
+                if (label.contains(query)) {
+                    matches.add(label);
+                }
+            }
+            return matches;
+        }
+
+        List<int[]> lists = new ArrayList<>();
+        for (String gram : grams(query, n)) {
+            int[] list = postings.getOrDefault(gram, NO_LABELS);
+            if (list.length == 0) {
+                return List.of();
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+
+        int[] candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+
+        List<String> matches = new ArrayList<>(candidates.length);
+        for (int ordinal : candidates) {
+            if (labels[ordinal].contains(query)) {
+                matches.add(labels[ordinal]);
+            }
+        }
+        return matches;
+    }
+
+    int size() {
+        return labels.length;
+    }
+
+    /**
+     * Distinct n-grams of {@code value}; a value shorter than {@code n} yields itself as its only gram.
+     */
+    static Set<String> grams(String value, int n) {
+        if (value.length() <= n) {
+            return Set.of(value);
+        }
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + n <= value.length(); i++) {
+            grams.add(value.substring(i, i + n));
+        }
+        return grams;
+    }
+
+    private static int[] intersect(int[] left, int[] right) {
+        int[] result = new int[Math.min(left.length, right.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[size++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
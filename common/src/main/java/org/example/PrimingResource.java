@@ -0,0 +1,14 @@
+package org.example;
+
+import org.crac.Resource;
+
+/**
+ * A CRaC resource that only primes before a checkpoint. It holds no clients or connections of its own, so
+ * nothing needs replacing after a restore.
+ */
+public interface PrimingResource extends Resource {
+
+    @Override
+    default void afterRestore(org.crac.Context<? extends Resource> context) {
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
+import software.amazon.awssdk.services.rekognition.model.Image;
+import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.rekognition.model.S3Object;
+import software.amazon.awssdk.services.rekognition.model.ThrottlingException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * {@link LabelDetector} backed by Rekognition. Objects in an {@link S3ImageBlobStore} are passed by
+ * reference, so Rekognition reads them from S3 itself; objects in any other store are uploaded as bytes.
+ */
+public class RekognitionLabelDetector implements LabelDetector {
+
+    private final RekognitionClient rekognitionClient;
+
+    public RekognitionLabelDetector(RekognitionClient rekognitionClient) {
+        this.rekognitionClient = rekognitionClient;
+    }
+
+    @Override
+    public List<String> detectLabels(ImageBlobStore store, String key) {
+        if (store instanceof S3ImageBlobStore s3Store) {
+            return detectLabels(Image.builder()
+                    .s3Object(S3Object.builder().bucket(s3Store.bucket()).name(key).build())
+                    .build());
+        }
+        try (ImageBlobStore.Blob blob = store.open(key)) {
+            return detectLabels(blob.content().readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading image: " + key, e);
+        }
+    }
+
+    @Override
+    public List<String> detectLabels(byte[] image) {
+        return detectLabels(Image.builder().bytes(SdkBytes.fromByteArrayUnsafe(image)).build());
+    }
+
+    private List<String> detectLabels(Image image) {
+        return rekognitionClient.detectLabels(DetectLabelsRequest.builder().image(image).build())
+                .labels().stream()
+                .map(Label::name)
+                .toList();
+    }
+
+    @Override
+    public boolean isThrottling(RuntimeException e) {
+        return e instanceof ThrottlingException
+                || e instanceof ProvisionedThroughputExceededException
+                || (e instanceof SdkServiceException serviceException && serviceException.isThrottlingException());
+    }
+}
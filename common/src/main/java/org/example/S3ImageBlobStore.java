@@ -0,0 +1,126 @@
+package org.example;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.util.Objects.isNull;
+
+/**
+ * {@link ImageBlobStore} over one S3 bucket. Sizes come from HEAD requests and prefixes from ranged GETs,
+ * so neither downloads the object. The clients belong to the caller, which closes them.
+ */
+public class S3ImageBlobStore implements ImageBlobStore {
+
+    private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+    private final String bucket;
+
+    /**
+     * @param s3Presigner may be null when the store is never asked to {@link #presign}
+     */
+    public S3ImageBlobStore(S3Client s3Client, S3Presigner s3Presigner, String bucket) {
+        this.s3Client = s3Client;
+        this.s3Presigner = s3Presigner;
+        this.bucket = bucket;
+    }
+
+    public String bucket() {
+        return bucket;
+    }
+
+    @Override
+    public OptionalLong size(String key) {
+        try {
+            return OptionalLong.of(s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build()).contentLength());
+        } catch (S3Exception e) {
+            if (e.statusCode() != 404) {
+                throw e;
+            }
+            return OptionalLong.empty();
+        }
+    }
+
+    @Override
+    public Blob open(String key) {
+        try {
+            ResponseInputStream<GetObjectResponse> object = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build());
+            return new Blob(object, object.response().contentType());
+        } catch (S3Exception e) {
+            if (e.statusCode() != 404) {
+                throw e;
+            }
+            throw new NoSuchElementException("No object " + key + " in bucket " + bucket);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> readPrefix(String key, int length) {
+        try {
+            return Optional.of(s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=0-" + (length - 1))
+                    .build()).asByteArray());
+        } catch (S3Exception e) {
+            // An empty object cannot satisfy any range.
+            if (e.statusCode() == 416) {
+                return Optional.of(new byte[0]);
+            }
+            if (e.statusCode() != 404) {
+                throw e;
+            }
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content, String contentType) {
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .build(),
+                RequestBody.fromBytes(content));
+    }
+
+    @Override
+    public void delete(String key) {
+        s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    @Override
+    public Link presign(String key, Duration ttl) {
+        if (isNull(s3Presigner)) {
+            throw new UnsupportedOperationException("No presigner configured for bucket " + bucket);
+        }
+        PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build())
+                .build());
+        return new Link(presignedRequest.url().toString(), presignedRequest.expiration());
+    }
+}
@@ -0,0 +1,119 @@
+package org.example;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Parallel scan over a DynamoDB table. The table is split into {@code totalSegments} segments that are
+ * read concurrently, every segment follows {@code LastEvaluatedKey} until it is exhausted, and all
+ * segments stop fetching new pages once {@code limit} results have been collected. A single segment is
+ * read on the calling thread, and needs no executor.
+ */
+class SegmentedTableScanner {
+
+    private final DynamoDbClient dynamoDbClient;
+    private final ExecutorService executor;
+    private final int totalSegments;
+
+    SegmentedTableScanner(DynamoDbClient dynamoDbClient, ExecutorService executor, int totalSegments) {
+        if (totalSegments < 1) {
+            throw new IllegalArgumentException("totalSegments must be positive: " + totalSegments);
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.executor = executor;
+        this.totalSegments = totalSegments;
+    }
+
+    /**
+     * Scans the whole table described by {@code template} and maps every item through {@code mapper};
+     * items mapped to an empty {@link Optional} are dropped. Results are in no particular order.
+     */
+    <T> List<T> scan(ScanRequest template, Function<Map<String, AttributeValue>, Optional<T>> mapper) {
+        return scan(template, mapper, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #scan(ScanRequest, Function)}, but stops reading once {@code limit} results have been
+     * collected and returns at most that many. Which items are read first depends on the hash order of
+     * their keys, so this suits callers that need any {@code limit} results, not the first in key order.
+     */
+    <T> List<T> scan(ScanRequest template, Function<Map<String, AttributeValue>, Optional<T>> mapper, int limit) {
+        Queue<T> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger found = new AtomicInteger();
+
+        if (totalSegments == 1) {
+            scanSegment(template, mapper, limit, results, found);
+            return new ArrayList<>(results);
+        }
+
+        List<Future<?>> segments = new ArrayList<>(totalSegments);
+        for (int segment = 0; segment < totalSegments; segment++) {
+            ScanRequest segmentRequest = template.toBuilder()
+                    .segment(segment)
+                    .totalSegments(totalSegments)
+                    .build();
+            segments.add(executor.submit(() -> scanSegment(segmentRequest, mapper, limit, results, found)));
+        }
+
+        try {
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+        } catch (InterruptedException e) {
+            segments.forEach(segment -> segment.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning " + template.tableName(), e);
+        } catch (ExecutionException e) {
+            segments.forEach(segment -> segment.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Error scanning " + template.tableName(), e.getCause());
+        }
+
+        List<T> collected = new ArrayList<>(results);
+        return collected.size() > limit ? collected.subList(0, limit) : collected;
+    }
+
+    private <T> void scanSegment(ScanRequest request,
+                                 Function<Map<String, AttributeValue>, Optional<T>> mapper,
+                                 int limit,
+                                 Queue<T> results,
+                                 AtomicInteger found) {
+        ScanRequest pageRequest = request;
+        while (found.get() < limit && !Thread.currentThread().isInterrupted()) {
+            ScanResponse page = dynamoDbClient.scan(pageRequest);
+
+            for (Map<String, AttributeValue> item : page.items()) {
+                Optional<T> mapped = mapper.apply(item);
+                if (mapped.isPresent()) {
+                    results.add(mapped.get());
+                    if (found.incrementAndGet() >= limit) {
+                        return;
+                    }
+                }
+            }
+
+            if (!page.hasLastEvaluatedKey() || page.lastEvaluatedKey().isEmpty()) {
+                return;
+            }
+            pageRequest = pageRequest.toBuilder()
+                    .exclusiveStartKey(page.lastEvaluatedKey())
+                    .build();
+        }
+    }
+}
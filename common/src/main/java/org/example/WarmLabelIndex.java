@@ -0,0 +1,413 @@
+package org.example;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * In-process label -> imageId index in front of another {@link LabelIndex}, kept alive across invocations
+ * of a warm container. Only {@link #findImages} is answered from memory; everything else goes straight to
+ * the delegate.
+ * <p>
+ * The index is built from all images of the delegate on first use, on the calling thread. After that,
+ * refreshes run on {@code refreshExecutor} while queries keep being answered from the current postings:
+ * at most once per {@code maxStaleness} the images updated since the previous refresh, less
+ * {@code refreshOverlap}, are applied and the images removed since then dropped, and every
+ * {@code fullRefreshInterval} the postings are rebuilt from scratch and swapped in. Callers also
+ * {@link #evict} images they find deleted, so they stop matching before the next refresh. If the index
+ * grows past {@code maxPostings} it is dropped and queries go to the delegate until the next full refresh.
+ * <p>
+ * Every image gets a dense integer ordinal and each label's postings are a {@link RoaringBitmap} of
+ * ordinals, so boolean queries evaluate as bitmap operations. Image ids are also kept sorted, so a page
+ * can start from the cursor instead of sorting every match. Query terms are resolved to labels through
+ * an {@link NGramIndex} over the label vocabulary, rebuilt lazily whenever a label appears or disappears.
+ */
+public class WarmLabelIndex implements LabelIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmLabelIndex.class);
+
+    private final LabelIndex delegate;
+    private final Executor refreshExecutor;
+    private final long maxStalenessMillis;
+    private final long refreshOverlapSeconds;
+    private final long fullRefreshIntervalMillis;
+    private final long maxPostings;
+    private final int ngramSize;
+
+    // Null before the first load and while over capacity.
+    private Postings postings;
+    private long lastRefreshMillis;
+    private long lastFullRefreshMillis;
+    private boolean loaded;
+    private boolean refreshing;
+
+    /**
+     * @param refreshOverlapSeconds how far before the previous refresh each incremental refresh starts
+     *                              reading. Writers stamp {@code timestamp} when they build an image but may
+     *                              write it only at the end of their invocation, so this must be at least
+     *                              the writers' function timeout plus their clock skew.
+     */
+    public WarmLabelIndex(LabelIndex delegate,
+                          Executor refreshExecutor,
+                          long maxStalenessMillis,
+                          long refreshOverlapSeconds,
+                          long fullRefreshIntervalMillis,
+                          long maxPostings,
+                          int ngramSize) {
+        this.delegate = delegate;
+        this.refreshExecutor = refreshExecutor;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.refreshOverlapSeconds = refreshOverlapSeconds;
+        this.fullRefreshIntervalMillis = fullRefreshIntervalMillis;
+        this.maxPostings = maxPostings;
+        this.ngramSize = ngramSize;
+    }
+
+    /**
+     * Returns the first {@code maxResults} cached matches after {@code after} in key order, or the
+     * delegate's answer while the index is over its memory cap.
+     */
+    @Override
+    public List<String> findImages(LabelQuery query, String after, int maxResults) {
+        loadIfNeeded();
+        Optional<List<String>> cached = search(query, after, maxResults);
+        scheduleRefreshIfStale();
+        return cached.isPresent() ? cached.get() : delegate.findImages(query, after, maxResults);
+    }
+
+    /**
+     * Returns one page of the ids of images matching {@code query}, or an empty {@link Optional} when the
+     * index is over its memory cap and the caller must fall back.
+     */
+    private synchronized Optional<List<String>> search(LabelQuery query, String after, int maxResults) {
+        if (isNull(postings)) {
+            return Optional.empty();
+        }
+        return Optional.of(postings.page(postings.evaluate(query), after, maxResults));
+    }
+
+    /**
+     * Drops an image that no longer exists, so it stops matching before the next full refresh.
+     */
+    public synchronized void evict(String imageId) {
+        if (nonNull(postings)) {
+            postings.evict(imageId);
+        }
+    }
+
+    /**
+     * Builds the index on the first query. Later queries never wait for the delegate.
+     */
+    private synchronized void loadIfNeeded() {
+        if (!loaded) {
+            refresh(true);
+        }
+    }
+
+    private void scheduleRefreshIfStale() {
+        boolean full;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (refreshing) {
+                return;
+            }
+            if (now - lastFullRefreshMillis >= fullRefreshIntervalMillis) {
+                full = true;
+            } else if (nonNull(postings) && now - lastRefreshMillis >= maxStalenessMillis) {
+                full = false;
+            } else {
+                return;
+            }
+            refreshing = true;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refresh(full);
+                } catch (RuntimeException e) {
+                    logger.error("Error refreshing label index", e);
+                } finally {
+                    synchronized (this) {
+                        refreshing = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Label index refresh rejected: {}", e.getMessage());
+            synchronized (this) {
+                refreshing = false;
+            }
+        }
+    }
+
+    /**
+     * Reads from the delegate without holding the lock, so queries are only blocked while the changes are
+     * applied or the rebuilt postings are swapped in.
+     */
+    private void refresh(boolean full) {
+        long startedMillis = System.currentTimeMillis();
+        long since;
+        synchronized (this) {
+            since = full ? 0 : Math.max(1, lastRefreshMillis / 1000 - refreshOverlapSeconds);
+        }
+        List<IndexedImage> images = delegate.imagesUpdatedSince(since);
+        // Read after the updates: an image removed in between is then dropped, not left behind.
+        List<String> removedImages = full ? List.of() : delegate.imagesRemovedSince(since);
+
+        if (full) {
+            Postings rebuilt = new Postings(ngramSize);
+            boolean fits = rebuilt.apply(images, maxPostings);
+            if (fits) {
+                rebuilt.optimize();
+            } else {
+                logger.warn("Label index exceeded {} postings, disabling it until the next full refresh", maxPostings);
+            }
+            synchronized (this) {
+                postings = fits ? rebuilt : null;
+                loaded = true;
+                lastRefreshMillis = startedMillis;
+                lastFullRefreshMillis = startedMillis;
+            }
+            logger.info("Label index rebuilt: {} labels, {} images, {} postings",
+                    rebuilt.imagesByLabel.size(), rebuilt.labelsByImage.size(), rebuilt.count);
+            return;
+        }
+
+        synchronized (this) {
+            if (isNull(postings)) {
+                return;
+            }
+            if (!postings.apply(images, maxPostings)) {
+                logger.warn("Label index exceeded {} postings, disabling it until the next full refresh", maxPostings);
+                postings = null;
+            } else {
+                removedImages.forEach(postings::evict);
+            }
+            lastRefreshMillis = startedMillis;
+        }
+        logger.info("Label index refreshed with {} changed and {} removed images", images.size(), removedImages.size());
+    }
+
+    @Override
+    public List<IndexedImage> imagesUpdatedSince(long epochSecond) {
+        return delegate.imagesUpdatedSince(epochSecond);
+    }
+
+    @Override
+    public List<String> imagesRemovedSince(long epochSecond) {
+        return delegate.imagesRemovedSince(epochSecond);
+    }
+
+    @Override
+    public Optional<IndexedImage> findImage(String imageId) {
+        return delegate.findImage(imageId);
+    }
+
+    @Override
+    public Map<String, IndexedImage> getImages(Collection<String> imageIds) {
+        return delegate.getImages(imageIds);
+    }
+
+    @Override
+    public boolean hasLabelCache() {
+        return delegate.hasLabelCache();
+    }
+
+    @Override
+    public Optional<List<String>> cachedLabels(String contentHash) {
+        return delegate.cachedLabels(contentHash);
+    }
+
+    @Override
+    public WriteBatch newBatch() {
+        return delegate.newBatch();
+    }
+
+    @Override
+    public boolean replace(IndexedImage image, IndexedImage previous, WriteBatch batch) {
+        return delegate.replace(image, previous, batch);
+    }
+
+    @Override
+    public boolean remove(IndexedImage previous, String sequencer, WriteBatch batch) {
+        return delegate.remove(previous, sequencer, batch);
+    }
+
+    /**
+     * The bitmap postings of one build of the index. Not thread-safe: a build is filled by one thread
+     * before it is published, and only used under the lock of the index afterwards.
+     */
+    private static final class Postings {
+
+        private final int ngramSize;
+        private final Map<String, RoaringBitmap> imagesByLabel = new HashMap<>();
+        private final Map<String, Set<String>> labelsByImage = new HashMap<>();
+        private final NavigableMap<String, Integer> ordinalsByImage = new TreeMap<>();
+        private final List<String> imagesByOrdinal = new ArrayList<>();
+        private final RoaringBitmap allImages = new RoaringBitmap();
+        private NGramIndex labelGrams;
+        private long count;
+
+        private Postings(int ngramSize) {
+            this.ngramSize = ngramSize;
+        }
+
+        /**
+         * Applies the images and returns false as soon as there are more than {@code maxPostings} postings.
+         */
+        private boolean apply(List<IndexedImage> images, long maxPostings) {
+            for (IndexedImage image : images) {
+                if (isNull(image.imageId())) {
+                    continue;
+                }
+                put(image.imageId(), image.labels());
+                if (count > maxPostings) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void optimize() {
+            imagesByLabel.values().forEach(RoaringBitmap::runOptimize);
+        }
+
+        private RoaringBitmap evaluate(LabelQuery query) {
+            if (isNull(labelGrams)) {
+                labelGrams = new NGramIndex(imagesByLabel.keySet(), ngramSize);
+            }
+
+            return query.evaluate(new LabelQuery.Evaluator<>() {
+                @Override
+                public RoaringBitmap term(String text) {
+                    RoaringBitmap images = new RoaringBitmap();
+                    for (String label : labelGrams.find(text)) {
+                        images.or(imagesByLabel.get(label));
+                    }
+                    return images;
+                }
+
+                @Override
+                public RoaringBitmap and(RoaringBitmap left, RoaringBitmap right) {
+                    left.and(right);
+                    return left;
+                }
+
+                @Override
+                public RoaringBitmap or(RoaringBitmap left, RoaringBitmap right) {
+                    left.or(right);
+                    return left;
+                }
+
+                @Override
+                public RoaringBitmap andNot(RoaringBitmap left, RoaringBitmap right) {
+                    left.andNot(right);
+                    return left;
+                }
+
+                @Override
+                public RoaringBitmap universe() {
+                    return allImages.clone();
+                }
+            });
+        }
+
+        /**
+         * The first {@code maxResults} ids in {@code matches} after {@code after}, in key order. Walking the
+         * sorted ids from the cursor and probing the bitmap stops after about
+         * {@code maxResults * images / matches} ids, which is cheap for common labels; sparse matches are
+         * cheaper to collect and sort, and the smaller estimated cost decides.
+         */
+        private List<String> page(RoaringBitmap matches, String after, int maxResults) {
+            long cardinality = matches.getLongCardinality();
+            if (cardinality == 0 || maxResults <= 0) {
+                return List.of();
+            }
+
+            double walkCost = (double) maxResults * ordinalsByImage.size() / cardinality;
+            double sortCost = (double) cardinality * (64 - Long.numberOfLeadingZeros(cardinality));
+            if (walkCost <= sortCost) {
+                List<String> page = new ArrayList<>((int) Math.min(maxResults, cardinality));
+                NavigableMap<String, Integer> ids = isNull(after) ? ordinalsByImage : ordinalsByImage.tailMap(after, false);
+                for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                    if (matches.contains(entry.getValue())) {
+                        page.add(entry.getKey());
+                        if (page.size() >= maxResults) {
+                            break;
+                        }
+                    }
+                }
+                return page;
+            }
+
+            List<String> imageIds = new ArrayList<>((int) cardinality);
+            matches.forEach((int ordinal) -> {
+                String imageId = imagesByOrdinal.get(ordinal);
+                if (isNull(after) || imageId.compareTo(after) > 0) {
+                    imageIds.add(imageId);
+                }
+            });
+            imageIds.sort(null);
+            return imageIds.size() <= maxResults ? imageIds : List.copyOf(imageIds.subList(0, maxResults));
+        }
+
+        private void evict(String imageId) {
+            Integer ordinal = ordinalsByImage.get(imageId);
+            if (isNull(ordinal)) {
+                return;
+            }
+            put(imageId, List.of());
+            labelsByImage.remove(imageId);
+            allImages.remove(ordinal);
+        }
+
+        private void put(String imageId, List<String> labels) {
+            Integer ordinal = ordinalsByImage.get(imageId);
+            if (isNull(ordinal)) {
+                ordinal = imagesByOrdinal.size();
+                imagesByOrdinal.add(imageId);
+                ordinalsByImage.put(imageId, ordinal);
+            }
+            allImages.add(ordinal);
+
+            Set<String> previous = labelsByImage.remove(imageId);
+            if (nonNull(previous)) {
+                for (String label : previous) {
+                    RoaringBitmap images = imagesByLabel.get(label);
+                    if (images.checkedRemove(ordinal)) {
+                        count--;
+                    }
+                    if (images.isEmpty()) {
+                        imagesByLabel.remove(label);
+                        labelGrams = null;
+                    }
+                }
+            }
+
+            Set<String> normalized = new HashSet<>();
+            for (String label : labels) {
+                normalized.add(label.toLowerCase());
+            }
+            for (String label : normalized) {
+                RoaringBitmap images = imagesByLabel.get(label);
+                if (isNull(images)) {
+                    images = new RoaringBitmap();
+                    imagesByLabel.put(label, images);
+                    labelGrams = null;
+                }
+                if (images.checkedAdd(ordinal)) {
+                    count++;
+                }
+            }
+            labelsByImage.put(imageId, normalized);
+        }
+    }
+}
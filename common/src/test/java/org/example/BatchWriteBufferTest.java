@@ -0,0 +1,115 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchWriteBufferTest {
+
+    private static final String TABLE = "labels";
+
+    private final DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+    private final BatchWriteBuffer buffer = new BatchWriteBuffer(dynamoDbClient);
+
+    @Test
+    void writesInChunksOf25() {
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder().build());
+        for (int i = 0; i < 30; i++) {
+            add("image-" + i);
+        }
+
+        assertTrue(buffer.flush().isEmpty());
+
+        ArgumentCaptor<BatchWriteItemRequest> requests = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchWriteItem(requests.capture());
+        assertEquals(25, requests.getAllValues().get(0).requestItems().get(TABLE).size());
+        assertEquals(5, requests.getAllValues().get(1).requestItems().get(TABLE).size());
+    }
+
+    @Test
+    void retriesOnlyTheUnprocessedItems() {
+        add("image-a");
+        add("image-b");
+        Map<String, List<WriteRequest>> unprocessed = Map.of(TABLE, List.of(request("image-b")));
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build())
+                .thenReturn(BatchWriteItemResponse.builder().build());
+
+        assertTrue(buffer.flush().isEmpty());
+
+        ArgumentCaptor<BatchWriteItemRequest> requests = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDbClient, times(2)).batchWriteItem(requests.capture());
+        assertEquals(unprocessed, requests.getAllValues().get(1).requestItems());
+    }
+
+    @Test
+    void reportsTheOwnersOfItemsStillUnprocessedAfterTheLastAttempt() {
+        add("image-a");
+        add("image-b");
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder()
+                        .unprocessedItems(Map.of(TABLE, List.of(request("image-b"))))
+                        .build());
+
+        assertEquals(Set.of("image-b"), buffer.flush());
+        verify(dynamoDbClient, times(8)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    void aRejectedChunkIsRetriedOneWriteAtATime() {
+        add("image-a");
+        add("bad");
+        add("image-c");
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class))).thenAnswer(invocation -> {
+            BatchWriteItemRequest request = invocation.getArgument(0);
+            if (request.requestItems().get(TABLE).contains(request("bad"))) {
+                throw DynamoDbException.builder().message("Item too large").build();
+            }
+            return BatchWriteItemResponse.builder().build();
+        });
+
+        assertEquals(Set.of("bad"), buffer.flush());
+        verify(dynamoDbClient, times(4)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    void aRepeatedKeyIsWrittenOnceForAllItsOwners() {
+        Map<String, AttributeValue> key = Map.of("imageId", AttributeValue.fromS("shared"));
+        buffer.add("first", TABLE, key, request("shared"));
+        buffer.add("second", TABLE, key, request("shared"));
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenThrow(DynamoDbException.builder().message("Unavailable").build());
+
+        assertEquals(Set.of("first", "second"), buffer.flush());
+        verify(dynamoDbClient, times(1)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    private void add(String imageId) {
+        buffer.add(imageId, TABLE, Map.of("imageId", AttributeValue.fromS(imageId)), request(imageId));
+    }
+
+    private static WriteRequest request(String imageId) {
+        return WriteRequest.builder()
+                .putRequest(PutRequest.builder().item(Map.of("imageId", AttributeValue.fromS(imageId))).build())
+                .build();
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DynamoDbLabelIndexTest {
+
+    private final DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+    private final DynamoDbLabelIndex index = new DynamoDbLabelIndex(dynamoDbClient, "images", null, null, null, null,
+            false, 3, null, 1);
+
+    @Test
+    void scannedMatchesServeTheFollowingPagesInKeyOrder() {
+        // Scans return items in hash order, not in key order.
+        List<Map<String, AttributeValue>> items = new ArrayList<>(IntStream.range(0, 50)
+                .mapToObj(i -> Map.of(
+                        "imageId", AttributeValue.fromS(String.format("image-%02d", i)),
+                        "labels", AttributeValue.fromSs(List.of(i % 2 == 0 ? "Dog" : "Cat"))))
+                .toList());
+        Collections.reverse(items);
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenReturn(ScanResponse.builder().items(items).build());
+        LabelQuery dog = LabelQuery.parse("dog");
+
+        List<String> seen = new ArrayList<>();
+        String after = null;
+        List<String> page;
+        do {
+            page = index.findImages(dog, after, 2);
+            seen.addAll(page);
+            after = page.isEmpty() ? null : page.get(page.size() - 1);
+        } while (!page.isEmpty());
+
+        List<String> expected = IntStream.range(0, 50).filter(i -> i % 2 == 0)
+                .mapToObj(i -> String.format("image-%02d", i))
+                .toList();
+        assertEquals(expected, seen);
+        // 25 matches in pages of two: the first scan keeps ten pages, the second the remaining five matches.
+        verify(dynamoDbClient, times(2)).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    void backfillWritesThePostingsOfImagesStillIndexedAsScanned() {
+        DynamoDbLabelIndex labelIndex = new DynamoDbLabelIndex(dynamoDbClient, "images", "postings", "grams", null,
+                null, false, 3, null, 1);
+        when(dynamoDbClient.scan(any(ScanRequest.class))).thenReturn(ScanResponse.builder().items(
+                image("kept.jpg", "Backfilled Dog"),
+                image("replaced.jpg", "Backfilled Cat")).build());
+        when(dynamoDbClient.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenReturn(TransactWriteItemsResponse.builder().build())
+                .thenThrow(TransactionCanceledException.builder()
+                        .cancellationReasons(CancellationReason.builder().code("ConditionalCheckFailed").build())
+                        .build());
+        when(dynamoDbClient.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(BatchWriteItemResponse.builder().build());
+
+        assertEquals(1, labelIndex.backfillLabelIndex());
+
+        ArgumentCaptor<TransactWriteItemsRequest> transactions = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDbClient, times(2)).transactWriteItems(transactions.capture());
+        TransactWriteItemsRequest kept = transactions.getAllValues().get(0);
+        assertEquals(2, kept.transactItems().size());
+        assertTrue(kept.transactItems().get(0).conditionCheck().conditionExpression().contains("#ts = :ts"));
+        assertEquals(Map.of("label", AttributeValue.fromS("backfilled dog"), "imageId", AttributeValue.fromS("kept.jpg")),
+                kept.transactItems().get(1).put().item());
+    }
+
+    @Test
+    void unprocessedImageReadsAreRetriedABoundedNumberOfTimes() {
+        Map<String, KeysAndAttributes> unprocessed = Map.of("images", KeysAndAttributes.builder()
+                .keys(Map.of("imageId", AttributeValue.fromS("throttled.jpg")))
+                .build());
+        when(dynamoDbClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Map.of("images", List.of(image("dog.jpg", "Dog"))))
+                        .unprocessedKeys(unprocessed)
+                        .build())
+                .thenReturn(BatchGetItemResponse.builder().unprocessedKeys(unprocessed).build());
+
+        assertEquals(List.of("dog.jpg"), List.copyOf(index.getImages(List.of("dog.jpg", "throttled.jpg")).keySet()));
+        verify(dynamoDbClient, times(5)).batchGetItem(any(BatchGetItemRequest.class));
+    }
+
+    private static Map<String, AttributeValue> image(String imageId, String label) {
+        return Map.of(
+                "imageId", AttributeValue.fromS(imageId),
+                "labels", AttributeValue.fromSs(List.of(label)),
+                "timestamp", AttributeValue.fromN("1700000000"));
+    }
+}
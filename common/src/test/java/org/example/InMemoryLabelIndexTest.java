@@ -0,0 +1,75 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryLabelIndexTest {
+
+    @Test
+    void batchedWritesBecomeVisibleWhenFlushed() {
+        InMemoryLabelIndex index = new InMemoryLabelIndex();
+        LabelIndex.WriteBatch batch = index.newBatch();
+        batch.put(image("dog.jpg", "1", "Dog"));
+        batch.cacheLabels("dog.jpg", "hash", List.of("Dog"));
+
+        assertTrue(index.findImage("dog.jpg").isEmpty());
+        assertTrue(index.cachedLabels("hash").isEmpty());
+
+        assertTrue(batch.flush().isEmpty());
+        assertEquals(List.of("Dog"), index.findImage("dog.jpg").orElseThrow().labels());
+        assertEquals(Optional.of(List.of("Dog")), index.cachedLabels("hash"));
+    }
+
+    @Test
+    void findImagesPagesInKeyOrderAfterTheCursor() {
+        InMemoryLabelIndex index = new InMemoryLabelIndex();
+        for (String imageId : List.of("d.jpg", "a.jpg", "c.jpg", "b.jpg")) {
+            index.put(image(imageId, "1", imageId.equals("c.jpg") ? "Cat" : "Dog"));
+        }
+        LabelQuery dog = LabelQuery.parse("dog");
+
+        assertEquals(List.of("a.jpg", "b.jpg"), index.findImages(dog, null, 2));
+        assertEquals(List.of("d.jpg"), index.findImages(dog, "b.jpg", 2));
+        assertEquals(List.of(), index.findImages(dog, "d.jpg", 2));
+        assertEquals(Map.of("a.jpg", index.findImage("a.jpg").orElseThrow()),
+                index.getImages(List.of("a.jpg", "missing.jpg")));
+    }
+
+    @Test
+    void overwritesAndRemovalsFromOlderEventsAreIgnored() {
+        InMemoryLabelIndex index = new InMemoryLabelIndex();
+        IndexedImage stored = image("dog.jpg", "0002", "Dog");
+        index.put(stored);
+
+        assertFalse(index.replace(image("dog.jpg", "0001", "Cat"), stored, index.newBatch()));
+        assertFalse(index.remove(stored, "0001", index.newBatch()));
+        assertEquals(List.of("Dog"), index.findImage("dog.jpg").orElseThrow().labels());
+
+        assertTrue(index.replace(image("dog.jpg", "0003", "Cat"), stored, index.newBatch()));
+        assertEquals(List.of("Cat"), index.findImage("dog.jpg").orElseThrow().labels());
+        assertTrue(index.remove(stored, "0004", index.newBatch()));
+        assertTrue(index.findImage("dog.jpg").isEmpty());
+    }
+
+    @Test
+    void theLabelCacheCanBeDisabled() {
+        InMemoryLabelIndex index = new InMemoryLabelIndex(false);
+        LabelIndex.WriteBatch batch = index.newBatch();
+        batch.cacheLabels("dog.jpg", "hash", List.of("Dog"));
+        batch.flush();
+
+        assertFalse(index.hasLabelCache());
+        assertTrue(index.cachedLabels("hash").isEmpty());
+    }
+
+    private static IndexedImage image(String imageId, String sequencer, String... labels) {
+        return new IndexedImage(imageId, List.of(labels), null, null, sequencer, Map.of(), 0);
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabelQueryTest {
+
+    private static final Map<String, List<String>> IMAGES = Map.of(
+            "beach-dog", List.of("Dog", "Beach", "Animal"),
+            "night-dog", List.of("Dog", "Night", "Animal"),
+            "cat", List.of("Cat", "Animal"),
+            "hot-dog", List.of("Hot Dog", "Food"),
+            "car", List.of("Car", "Vehicle")
+    );
+
+    @Test
+    void plainKeywordsAreOneTerm() {
+        assertEquals(new LabelQuery.Term("hot dog"), LabelQuery.parse("  Hot Dog "));
+    }
+
+    @Test
+    void operatorsNestWithAndBindingTighterThanOr() {
+        assertEquals(new LabelQuery.Or(List.of(
+                        new LabelQuery.Term("cat"),
+                        new LabelQuery.And(List.of(
+                                new LabelQuery.Term("dog"),
+                                new LabelQuery.Not(new LabelQuery.Term("night")))))),
+                LabelQuery.parse("cat OR dog AND NOT night"));
+        // Inside an expression, adjacent terms are joined with AND.
+        assertEquals(LabelQuery.parse("dog AND beach AND animal"), LabelQuery.parse("dog beach AND animal"));
+        assertEquals(new LabelQuery.And(List.of(new LabelQuery.Term("hot dog"), new LabelQuery.Term("food"))),
+                LabelQuery.parse("\"hot dog\" AND (food)"));
+    }
+
+    @Test
+    void malformedQueriesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse(" "));
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse("dog AND"));
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse("(dog OR cat"));
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse("dog) OR cat"));
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse("\"hot dog AND food"));
+        assertThrows(IllegalArgumentException.class, () -> LabelQuery.parse("\"\" OR dog"));
+    }
+
+    @Test
+    void unbalancedQuotesAndParenthesesWithoutOperatorsAreOneTerm() {
+        assertEquals(new LabelQuery.Term("6\" ruler"), LabelQuery.parse("6\" Ruler"));
+        assertEquals(new LabelQuery.Term("smiley :)"), LabelQuery.parse("smiley :)"));
+        assertEquals(new LabelQuery.Term("(dog"), LabelQuery.parse("(dog"));
+        assertEquals(new LabelQuery.And(List.of(new LabelQuery.Term("hot dog"), new LabelQuery.Term("beach"))),
+                LabelQuery.parse("\"hot dog\" beach"));
+    }
+
+    @Test
+    void termsMatchSubstringsOfLabelsIgnoringCase() {
+        assertTrue(LabelQuery.parse("DOG").matches(List.of("Hot Dog")));
+        assertTrue(LabelQuery.parse("anim").matches(List.of("Animal")));
+        assertFalse(LabelQuery.parse("dogs").matches(List.of("Dog")));
+    }
+
+    @Test
+    void evaluatingOverSetsAgreesWithMatchingEachImage() {
+        for (String query : List.of("dog", "dog AND NOT night", "(dog OR cat) AND NOT \"hot dog\"",
+                "NOT animal", "NOT dog OR cat", "animal beach", "vehicle OR food")) {
+            LabelQuery labelQuery = LabelQuery.parse(query);
+            Set<String> expected = IMAGES.entrySet().stream()
+                    .filter(image -> labelQuery.matches(image.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+
+            assertEquals(expected, labelQuery.evaluate(new SetEvaluator()), query);
+        }
+    }
+
+    @Test
+    void universeIsOnlyRequestedForNegationsWithNothingToSubtractFrom() {
+        SetEvaluator evaluator = new SetEvaluator();
+        LabelQuery.parse("dog AND NOT night").evaluate(evaluator);
+        assertEquals(0, evaluator.universeRequests);
+
+        LabelQuery.parse("NOT night").evaluate(evaluator);
+        assertEquals(1, evaluator.universeRequests);
+    }
+
+    @Test
+    void needsUniverseAgreesWithEvaluation() {
+        for (String query : List.of("dog", "dog AND NOT night", "NOT night", "NOT dog AND NOT night",
+                "cat OR NOT night", "dog AND NOT (cat OR NOT night)", "(NOT cat) dog", "dog OR cat")) {
+            SetEvaluator evaluator = new SetEvaluator();
+            LabelQuery labelQuery = LabelQuery.parse(query);
+            labelQuery.evaluate(evaluator);
+            assertEquals(evaluator.universeRequests > 0, labelQuery.needsUniverse(), query);
+        }
+    }
+
+    private static final class SetEvaluator implements LabelQuery.Evaluator<Set<String>> {
+
+        private int universeRequests;
+
+        @Override
+        public Set<String> term(String text) {
+            return IMAGES.entrySet().stream()
+                    .filter(image -> new LabelQuery.Term(text).matches(image.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toCollection(HashSet::new));
+        }
+
+        @Override
+        public Set<String> and(Set<String> left, Set<String> right) {
+            left.retainAll(right);
+            return left;
+        }
+
+        @Override
+        public Set<String> or(Set<String> left, Set<String> right) {
+            left.addAll(right);
+            return left;
+        }
+
+        @Override
+        public Set<String> andNot(Set<String> left, Set<String> right) {
+            left.removeAll(right);
+            return left;
+        }
+
+        @Override
+        public Set<String> universe() {
+            universeRequests++;
+            return new HashSet<>(IMAGES.keySet());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NGramIndexTest {
+
+    private static final List<String> VOCABULARY = List.of(
+            "dog", "hot dog", "dog sled", "cat", "bobcat", "catamaran", "animal", "a", "ox", "box");
+
+    @Test
+    void findsWhatALinearContainsFinds() {
+        for (int n = 1; n <= 4; n++) {
+            NGramIndex index = new NGramIndex(VOCABULARY, n);
+            for (String query : List.of("dog", "cat", "at", "a", "o", "ox", "g s", "hot dog", "zebra", "catamarans", "")) {
+                assertEquals(linearFind(VOCABULARY, query), index.find(query), "n=" + n + ", query=" + query);
+            }
+        }
+    }
+
+    @Test
+    void findsWhatALinearContainsFindsOnRandomLabels() {
+        Random random = new Random(7);
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            vocabulary.add(randomWord(random, 1 + random.nextInt(12)));
+        }
+        NGramIndex index = new NGramIndex(vocabulary, 3);
+
+        for (int i = 0; i < 500; i++) {
+            String query = randomWord(random, 1 + random.nextInt(5));
+            assertEquals(linearFind(vocabulary, query), index.find(query), query);
+        }
+        assertEquals(new TreeSet<>(vocabulary).size(), index.size());
+    }
+
+    @Test
+    void gramsOfShortValuesAreTheValueItself() {
+        assertEquals(Set.of("do"), NGramIndex.grams("do", 3));
+        assertEquals(Set.of("dog"), NGramIndex.grams("dog", 3));
+        assertEquals(Set.of("hot", "ot ", "t d", " do", "dog"), NGramIndex.grams("hot dog", 3));
+        assertEquals(Set.of("aaa"), NGramIndex.grams("aaaa", 3));
+    }
+
+    @Test
+    void gramSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new NGramIndex(VOCABULARY, 0));
+    }
+
+    private static List<String> linearFind(List<String> vocabulary, String query) {
+        return new TreeSet<>(vocabulary).stream().filter(label -> label.contains(query)).toList();
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            // A small alphabet, so queries often match.
+            word.append("abcde ".charAt(random.nextInt(6)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SegmentedTableScannerTest {
+
+    private static final ScanRequest SCAN = ScanRequest.builder().tableName("images").build();
+
+    private final DynamoDbClient dynamoDbClient = mock(DynamoDbClient.class);
+
+    @Test
+    void followsEveryPage() {
+        when(dynamoDbClient.scan(any(ScanRequest.class)))
+                .thenReturn(page(0, 3, true))
+                .thenReturn(page(3, 3, false));
+
+        List<String> imageIds = new SegmentedTableScanner(dynamoDbClient, null, 1).scan(SCAN, SegmentedTableScannerTest::imageId);
+
+        assertEquals(List.of("image-0", "image-1", "image-2", "image-3", "image-4", "image-5"), imageIds);
+        verify(dynamoDbClient, times(2)).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    void stopsFetchingPagesOnceTheLimitIsReached() {
+        when(dynamoDbClient.scan(any(ScanRequest.class)))
+                .thenReturn(page(0, 3, true))
+                .thenReturn(page(3, 3, false));
+
+        List<String> imageIds = new SegmentedTableScanner(dynamoDbClient, null, 1).scan(SCAN, SegmentedTableScannerTest::imageId, 2);
+
+        assertEquals(List.of("image-0", "image-1"), imageIds);
+        verify(dynamoDbClient, times(1)).scan(any(ScanRequest.class));
+    }
+
+    private static ScanResponse page(int from, int count, boolean more) {
+        ScanResponse.Builder page = ScanResponse.builder()
+                .items(IntStream.range(from, from + count)
+                        .mapToObj(i -> Map.of("imageId", AttributeValue.fromS("image-" + i)))
+                        .toList());
+        if (more) {
+            page.lastEvaluatedKey(Map.of("imageId", AttributeValue.fromS("image-" + (from + count - 1))));
+        }
+        return page.build();
+    }
+
+    private static Optional<String> imageId(Map<String, AttributeValue> item) {
+        return Optional.of(item.get("imageId").s());
+    }
+}
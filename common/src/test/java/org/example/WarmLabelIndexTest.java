@@ -0,0 +1,52 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WarmLabelIndexTest {
+
+    @Test
+    void incrementalRefreshesDropRemovedImages() {
+        InMemoryLabelIndex delegate = new InMemoryLabelIndex();
+        IndexedImage dog = image("dog.jpg", "Dog");
+        delegate.put(dog);
+        delegate.put(image("cat.jpg", "Cat"));
+        // Refreshes run on the calling thread after every query; only the first load is a full one.
+        WarmLabelIndex index = new WarmLabelIndex(delegate, Runnable::run, 0, 60, Long.MAX_VALUE, 1_000, 3);
+        LabelQuery notCat = LabelQuery.parse("NOT cat");
+
+        assertEquals(List.of("dog.jpg"), index.findImages(notCat, null, 10));
+
+        delegate.remove(dog, null, delegate.newBatch());
+        // Answered from the postings as they were, then refreshed.
+        index.findImages(notCat, null, 10);
+
+        assertEquals(List.of(), index.findImages(notCat, null, 10));
+        assertEquals(List.of(), index.findImages(LabelQuery.parse("dog"), null, 10));
+        assertEquals(List.of("cat.jpg"), index.findImages(LabelQuery.parse("cat"), null, 10));
+    }
+
+    @Test
+    void imagesIndexedAgainAfterRemovalAreKept() {
+        InMemoryLabelIndex delegate = new InMemoryLabelIndex();
+        IndexedImage dog = image("dog.jpg", "Dog");
+        delegate.put(dog);
+        WarmLabelIndex index = new WarmLabelIndex(delegate, Runnable::run, 0, 60, Long.MAX_VALUE, 1_000, 3);
+        LabelQuery query = LabelQuery.parse("dog");
+
+        assertEquals(List.of("dog.jpg"), index.findImages(query, null, 10));
+        delegate.remove(dog, null, delegate.newBatch());
+        delegate.put(dog);
+        index.findImages(query, null, 10);
+
+        assertEquals(List.of("dog.jpg"), index.findImages(query, null, 10));
+    }
+
+    private static IndexedImage image(String imageId, String... labels) {
+        return new IndexedImage(imageId, List.of(labels), null, null, null, Map.of(), System.currentTimeMillis() / 1000);
+    }
+}
@@ -0,0 +1,78 @@
+#!/usr/bin/env bash
+# Measures cold starts of a function under the AWS Lambda Runtime Interface Emulator: every run starts a
+# fresh emulator, which only launches the function on the first invocation, and times that invocation
+# (init plus the first request) and a second, warm one. Prints each run and the p50/p99 of both.
+#
+# Usage: cold-start.sh <native build dir | shadow jar> <handler> <event file> [runs]
+#
+# A directory runs the native binary through native/bootstrap; a jar runs on the JVM through the runtime
+# interface client, with JAVA_OPTS passed to java (e.g. -XX:TieredStopAtLevel=1, or -XX:CRaCRestoreFrom
+# on a CRaC JDK to compare against a restored snapshot).
+set -euo pipefail
+
+artifact=$1
+handler=$2
+event=$3
+runs=${4:-20}
+
+rie=${AWS_LAMBDA_RIE:-aws-lambda-rie}
+port=${COLD_START_PORT:-9001}
+script_dir=$(cd "$(dirname "$0")" && pwd)
+
+work_dir=$(mktemp -d)
+rie_pid=
+trap 'kill "$rie_pid" 2>/dev/null || true; rm -rf "$work_dir"' EXIT
+
+if [[ -d $artifact ]]; then
+    cp "$script_dir/bootstrap" "$artifact/function" "$work_dir/"
+    chmod +x "$work_dir/function"
+else
+    cp "$artifact" "$work_dir/function.jar"
+    cat >"$work_dir/bootstrap" <<'EOF'
+#!/bin/sh
+set -e
+exec java ${JAVA_OPTS:-} -cp "$(dirname "$0")/function.jar" \
+    com.amazonaws.services.lambda.runtime.api.client.AWSLambda "$_HANDLER"
+EOF
+fi
+chmod +x "$work_dir/bootstrap"
+
+url="http://127.0.0.1:$port/2015-03-31/functions/function/invocations"
+
+# Milliseconds taken by one invocation, or nothing when the emulator is not listening yet.
+invoke() {
+    curl -sf -o /dev/null -w '%{time_total}' -X POST "$url" --data-binary @"$event" 2>/dev/null \
+        | awk '{ printf "%d", $1 * 1000 }'
+}
+
+percentile() {
+    sort -n | awk -v p="$1" '{ v[NR] = $1 } END { i = int((NR * p + 99) / 100); print v[i < 1 ? 1 : i] }'
+}
+
+cold_file=$work_dir/cold
+warm_file=$work_dir/warm
+for run in $(seq 1 "$runs"); do
+    _HANDLER=$handler \
+    AWS_REGION=eu-central-1 \
+    AWS_ACCESS_KEY_ID=cold-start \
+    AWS_SECRET_ACCESS_KEY=cold-start \
+    DYNAMODB_TABLE_NAME=cold-start \
+        "$rie" --runtime-interface-emulator-address "127.0.0.1:$port" "$work_dir/bootstrap" >/dev/null 2>&1 &
+    rie_pid=$!
+
+    # The emulator answers immediately once it listens; only the function start is part of the cold time.
+    until curl -s -o /dev/null "http://127.0.0.1:$port/" 2>/dev/null; do
+        sleep 0.05
+    done
+    cold=$(invoke) || { echo "Cold invocation of $handler failed in run $run" >&2; exit 1; }
+    warm=$(invoke) || { echo "Warm invocation of $handler failed in run $run" >&2; exit 1; }
+    echo "run $run: cold ${cold} ms, warm ${warm} ms"
+    echo "$cold" >>"$cold_file"
+    echo "$warm" >>"$warm_file"
+
+    kill "$rie_pid"
+    wait "$rie_pid" 2>/dev/null || true
+done
+
+echo "cold: p50 $(percentile 50 <"$cold_file") ms, p99 $(percentile 99 <"$cold_file") ms over $runs runs"
+echo "warm: p50 $(percentile 50 <"$warm_file") ms, p99 $(percentile 99 <"$warm_file") ms over $runs runs"
@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+# Starts a native function binary under the AWS Lambda Runtime Interface Emulator, invokes it once with
+# an event that needs no AWS access, and checks the response.
+#
+# Usage: smoke-test.sh <native build dir> <handler> <event file> <expected response substring>
+set -euo pipefail
+
+build_dir=$1
+handler=$2
+event=$3
+expected=$4
+
+rie=${AWS_LAMBDA_RIE:-aws-lambda-rie}
+port=${SMOKE_TEST_PORT:-9000}
+script_dir=$(cd "$(dirname "$0")" && pwd)
+
+work_dir=$(mktemp -d)
+cp "$script_dir/bootstrap" "$build_dir/function" "$work_dir/"
+chmod +x "$work_dir/bootstrap" "$work_dir/function"
+
+_HANDLER=$handler \
+AWS_REGION=eu-central-1 \
+AWS_ACCESS_KEY_ID=smoke-test \
+AWS_SECRET_ACCESS_KEY=smoke-test \
+DYNAMODB_TABLE_NAME=smoke-test \
+    "$rie" --runtime-interface-emulator-address "127.0.0.1:$port" "$work_dir/bootstrap" &
+rie_pid=$!
+trap 'kill "$rie_pid" 2>/dev/null || true; rm -rf "$work_dir"' EXIT
+
+url="http://127.0.0.1:$port/2015-03-31/functions/function/invocations"
+for _ in $(seq 1 50); do
+    if response=$(curl -sf -X POST "$url" --data-binary @"$event" 2>/dev/null); then
+        echo "$response"
+        if grep -qF "$expected" <<<"$response"; then
+            echo "Smoke test passed for $handler"
+            exit 0
+        fi
+        echo "Unexpected response from $handler, expected to contain: $expected" >&2
+        exit 1
+    fi
+    sleep 0.2
+done
+
+echo "Runtime Interface Emulator did not answer on port $port" >&2
+exit 1
@@ -5,43 +5,226 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.crac.Core;
+import org.crac.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.ResponseBytes;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
-import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
+import static org.example.Environment.intEnv;
 
 
-public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>, Resource {
 
     private static final Logger logger = LoggerFactory.getLogger(SearchImageHandler.class);
 
-    private static final Region REGION = Region.EU_CENTRAL_1;
     private static final String TABLE_NAME = System.getenv("DYNAMODB_TABLE_NAME");
     private static final String BUCKET_NAME = System.getenv("S3_BUCKET_NAME");
+    private static final String INDEX_TABLE_NAME = System.getenv("LABEL_INDEX_TABLE_NAME");
+    private static final String GRAM_TABLE_NAME = System.getenv("LABEL_GRAM_TABLE_NAME");
+    // Set once the posting and gram tables hold every image (see LabelIndexBackfill); until then search
+    // scans the image table.
+    private static final boolean LABEL_INDEX_BACKFILLED = Boolean.parseBoolean(System.getenv("LABEL_INDEX_BACKFILLED"));
+    private static final String UPDATED_INDEX_NAME = System.getenv("LABEL_UPDATED_INDEX_NAME");
+    private static final int NGRAM_SIZE = Math.max(1, intEnv("LABEL_NGRAM_SIZE", 3));
+    private static final int SCAN_SEGMENTS = Math.max(1, intEnv("SCAN_SEGMENTS", 4));
+    private static final boolean LABEL_CACHE_ENABLED = Boolean.parseBoolean(System.getenv("LABEL_CACHE_ENABLED"));
+    private static final int LABEL_CACHE_MAX_STALENESS_SECONDS = intEnv("LABEL_CACHE_MAX_STALENESS_SECONDS", 60);
+    // At least the upload function's timeout: its items are stamped before they are flushed. 900 s is the
+    // longest timeout Lambda allows.
+    private static final int LABEL_CACHE_REFRESH_OVERLAP_SECONDS = intEnv("LABEL_CACHE_REFRESH_OVERLAP_SECONDS", 900);
+    private static final int LABEL_CACHE_FULL_REFRESH_SECONDS = intEnv("LABEL_CACHE_FULL_REFRESH_SECONDS", 3600);
+    private static final int LABEL_CACHE_MAX_POSTINGS = intEnv("LABEL_CACHE_MAX_POSTINGS", 2_000_000);
+    private static final int DEFAULT_PAGE_SIZE = Math.max(1, intEnv("DEFAULT_PAGE_SIZE", 20));
+    private static final int MAX_PAGE_SIZE = Math.max(DEFAULT_PAGE_SIZE, intEnv("MAX_PAGE_SIZE", 100));
+    // Lambda rejects responses over 6 MB; leave room for headers and the JSON envelope.
+    private static final int RESPONSE_BYTE_BUDGET = intEnv("RESPONSE_BYTE_BUDGET", 5_500_000);
+    private static final int RESPONSE_ENTRY_OVERHEAD_BYTES = 128;
+    private static final String DEFAULT_RESPONSE_MODE = Objects.requireNonNullElse(System.getenv("RESPONSE_MODE"), "inline");
+    private static final Duration PRESIGNED_URL_TTL = Duration.ofSeconds(intEnv("PRESIGNED_URL_TTL_SECONDS", 900));
+    // Must match the upload function, which records the derivatives it wrote in the index; blank when it writes none.
+    private static final String DERIVATIVE_PREFIX = Objects.requireNonNullElse(System.getenv("DERIVATIVE_PREFIX"), "derivatives/");
+    private static final String DEFAULT_IMAGE_VARIANT = Objects.requireNonNullElse(System.getenv("IMAGE_VARIANT"), "128");
+    private static final String ORIGINAL_VARIANT = "original";
+    private static final String FIRST_CURSOR = "\u0000";
+
+    static final int S3_FETCH_CONCURRENCY = Math.max(1, intEnv("S3_FETCH_CONCURRENCY", 8));
+    // Time kept in reserve after fetching images to serialize the response before Lambda times out.
+    private static final int RESPONSE_TIME_RESERVE_MILLIS = intEnv("RESPONSE_TIME_RESERVE_MILLIS", 1000);
+
+    private static final ExecutorService SCAN_EXECUTOR =
+            Executors.newFixedThreadPool(SCAN_SEGMENTS, daemonThreadFactory("dynamodb-scan"));
+    private static final ExecutorService S3_FETCH_EXECUTOR =
+            Executors.newFixedThreadPool(S3_FETCH_CONCURRENCY, daemonThreadFactory("s3-fetch"));
+    private static final ExecutorService LABEL_CACHE_REFRESH_EXECUTOR =
+            Executors.newSingleThreadExecutor(daemonThreadFactory("label-cache-refresh"));
 
     private final ObjectMapper objectMapper;
-    private final S3Client s3Client;
-    private final DynamoDbClient dynamoDbClient;
+    // Replaced by afterRestore; null when the handler was given its store and index.
+    private S3Client s3Client;
+    private S3Presigner s3Presigner;
+    private DynamoDbClient dynamoDbClient;
+    private ImageBlobStore blobStore;
+    private LabelIndex labelIndex;
+    // In front of labelIndex when LABEL_CACHE_ENABLED; survives across invocations of a warm container.
+    private WarmLabelIndex warmLabelIndex;
 
     public record Image(String imageName, String imageData, String contentType) {}
 
+    public record ImageLink(String imageName, String url, String expiresAt) {}
+
+    /**
+     * One page of matching image ids in key order; {@code nextCursor} is null on the last page.
+     */
+    record SearchPage(List<String> imageNames, String nextCursor) {}
+
+    /**
+     * A page trimmed to the response byte budget. {@code oversizedImages} could never fit in an inline
+     * response and are skipped; clients can fetch them with {@code mode=url}. {@code objectKeys} maps each
+     * kept image to the S3 object to send, which is a derivative when one exists for the requested variant.
+     */
+    record BudgetedPage(SearchPage page, List<String> oversizedImages, Map<String, String> objectKeys) {
+
+        String objectKey(String imageName) {
+            return objectKeys.getOrDefault(imageName, imageName);
+        }
+    }
+
+    /**
+     * The images of a page that could be loaded, and the cursor to continue from.
+     */
+    private record LoadedImages(List<Image> images, String nextCursor) {}
+
+    /**
+     * The object chosen to represent an image and its size in bytes.
+     */
+    private record StoredImage(String objectKey, long contentLength) {}
+
     public SearchImageHandler() {
-        this.s3Client = S3Client.builder().region(REGION).build();
-        this.dynamoDbClient = DynamoDbClient.builder().region(REGION).endpointDiscoveryEnabled(false).build();
+        createClients();
+        objectMapper = new ObjectMapper();
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * Serves from the given store and index instead of S3 and DynamoDB, for local runs and benchmarks.
+     */
+    SearchImageHandler(ImageBlobStore blobStore, LabelIndex labelIndex) {
         objectMapper = new ObjectMapper();
+        this.blobStore = blobStore;
+        useLabelIndex(labelIndex);
+    }
+
+    private void createClients() {
+        this.s3Client = AwsClientFactory.create(S3Client.builder(), "S3_ENDPOINT");
+        S3Presigner.Builder presigner = S3Presigner.builder()
+                .region(AwsClientFactory.region())
+                .credentialsProvider(AwsClientFactory.credentialsProvider());
+        AwsClientFactory.endpointOverride("S3_ENDPOINT").ifPresent(presigner::endpointOverride);
+        this.s3Presigner = presigner.build();
+        this.dynamoDbClient = AwsClientFactory.create(DynamoDbClient.builder().endpointDiscoveryEnabled(false), "DYNAMODB_ENDPOINT");
+        this.blobStore = new S3ImageBlobStore(s3Client, s3Presigner, BUCKET_NAME);
+        useLabelIndex(new DynamoDbLabelIndex(dynamoDbClient, TABLE_NAME, INDEX_TABLE_NAME, GRAM_TABLE_NAME, null,
+                UPDATED_INDEX_NAME, LABEL_INDEX_BACKFILLED, NGRAM_SIZE, SCAN_EXECUTOR, SCAN_SEGMENTS));
+    }
+
+    private synchronized void useLabelIndex(LabelIndex index) {
+        if (LABEL_CACHE_ENABLED) {
+            warmLabelIndex = new WarmLabelIndex(
+                    index,
+                    LABEL_CACHE_REFRESH_EXECUTOR,
+                    LABEL_CACHE_MAX_STALENESS_SECONDS * 1000L,
+                    LABEL_CACHE_REFRESH_OVERLAP_SECONDS,
+                    LABEL_CACHE_FULL_REFRESH_SECONDS * 1000L,
+                    LABEL_CACHE_MAX_POSTINGS,
+                    NGRAM_SIZE
+            );
+            labelIndex = warmLabelIndex;
+        } else {
+            labelIndex = index;
+        }
+    }
+
+    /**
+     * Runs the request path once without serving anything before a SnapStart snapshot, so class loading,
+     * Jackson serializer construction and SDK marshalling are already done in every restored container.
+     * Calls to AWS are best effort: they only have to load the code, not succeed.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        logger.info("Priming search before checkpoint");
+
+        APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent().withQueryStringParameters(Map.of(
+                "keyword", "(dog OR cat) AND NOT \"hot dog\"",
+                "cursor", encodeCursor("prime"),
+                "limit", String.valueOf(DEFAULT_PAGE_SIZE),
+                "variant", ORIGINAL_VARIANT
+        ));
+        LabelQuery query = LabelQuery.parse(extractQuery(request));
+        query.matches(List.of("Dog", "Animal"));
+        paginate(List.of("prime-c", "prime-a", "prime-b"), extractCursor(request), extractLimit(request));
+        extractVariant(request);
+        extractResponseMode(request);
+
+        String imageData = Base64.getEncoder().encodeToString(new byte[1024]);
+        createSuccessResponse(List.of(new Image("prime.jpg", imageData, "image/jpeg")), encodeCursor("prime"), List.of("prime"));
+        createSuccessResponse(List.of(new ImageLink("prime.jpg", "https://example.com/prime.jpg", "1970-01-01T00:00:00Z")), null);
+        createErrorResponse(400, "prime");
+
+        if (nonNull(BUCKET_NAME)) {
+            primeQuietly("the S3 presigner", () -> presignImage("prime.jpg", "prime.jpg"));
+            primeQuietly("S3 HeadObject", () -> blobStore.size("prime.jpg"));
+        }
+        if (nonNull(TABLE_NAME)) {
+            primeQuietly("DynamoDB GetItem", () -> labelIndex.findImage("__prime__"));
+            primeQuietly("DynamoDB BatchGetItem", () -> labelIndex.getImages(List.of("__prime__")));
+        }
+    }
+
+    /**
+     * Replaces the SDK clients, whose pooled connections and cached credentials belong to the container the
+     * snapshot was taken in. The warm label cache is replaced as well; it is rebuilt on first use. A handler
+     * given its store and index has no clients, and keeps them.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        if (isNull(s3Client)) {
+            return;
+        }
+        S3Client previousS3Client = s3Client;
+        S3Presigner previousS3Presigner = s3Presigner;
+        DynamoDbClient previousDynamoDbClient = dynamoDbClient;
+
+        createClients();
+
+        previousS3Client.close();
+        previousS3Presigner.close();
+        previousDynamoDbClient.close();
+        logger.info("Recreated AWS clients after restore");
+    }
+
+    private static void primeQuietly(String name, Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            logger.info("Priming call to {} failed: {}", name, e.getMessage());
+        }
     }
 
     @Override
@@ -54,18 +237,41 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
 
             logger.info("Searching for images with label: {}", query);
 
-            List<String> imageNames = searchImagesByLabel(query.toLowerCase());
+            LabelQuery labelQuery;
+            String after;
+            int limit;
+            String variant;
+            try {
+                labelQuery = LabelQuery.parse(query);
+                after = extractCursor(input);
+                limit = extractLimit(input);
+                variant = extractVariant(input);
+            } catch (IllegalArgumentException e) {
+                return createErrorResponse(400, e.getMessage());
+            }
+
+            SearchPage page = searchImagesByLabel(labelQuery, after, limit);
+            List<String> imageNames = page.imageNames();
 
             if (imageNames.isEmpty()) {
                 logger.info("No matching images found");
-                return createSuccessResponse(Collections.emptyList());
+                return createSuccessResponse(Collections.emptyList(), null);
             }
 
             logger.info("Found {} matching images", imageNames.size());
 
-            List<Image> images = loadImagesFromS3(imageNames);
+            String mode = extractResponseMode(input);
+            if ("url".equals(mode)) {
+                return createSuccessResponse(presignImages(imageNames, variant), page.nextCursor());
+            }
+            if (!"inline".equals(mode)) {
+                return createErrorResponse(400, "Unsupported response mode: " + mode);
+            }
+
+            BudgetedPage budgetedPage = fitToResponseBudget(page, variant);
+            LoadedImages loaded = loadImages(budgetedPage, after, context);
 
-            return createSuccessResponse(images);
+            return createSuccessResponse(loaded.images(), loaded.nextCursor(), budgetedPage.oversizedImages());
 
         } catch (Exception e) {
             logger.info("Error processing request: {}", e.getMessage());
@@ -73,7 +279,7 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
         }
     }
 
-    private String extractQuery(APIGatewayProxyRequestEvent input) {
+    String extractQuery(APIGatewayProxyRequestEvent input) {
         if (nonNull(input.getQueryStringParameters()) && input.getQueryStringParameters().containsKey("keyword")) {
             return input.getQueryStringParameters().get("keyword");
         }
@@ -81,60 +287,284 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
         return null;
     }
 
-    private List<String> searchImagesByLabel(String query) {
-        List<String> imageIds = new ArrayList<>();
-        logger.info("Searching query: {}", query);
+    String extractResponseMode(APIGatewayProxyRequestEvent input) {
+        if (nonNull(input.getQueryStringParameters()) && input.getQueryStringParameters().containsKey("mode")) {
+            return input.getQueryStringParameters().get("mode");
+        }
+
+        return DEFAULT_RESPONSE_MODE;
+    }
+
+    /**
+     * Decodes the opaque {@code cursor} parameter into the last image id of the previous page.
+     */
+    String extractCursor(APIGatewayProxyRequestEvent input) {
+        if (isNull(input.getQueryStringParameters()) || isNull(input.getQueryStringParameters().get("cursor"))) {
+            return null;
+        }
+
         try {
-            ScanRequest scanRequest = ScanRequest.builder()
-                    .tableName(TABLE_NAME)
-                    .build();
-
-            ScanResponse scanResponse = dynamoDbClient.scan(scanRequest);
-
-            for (Map<String, AttributeValue> item : scanResponse.items()) {
-                AttributeValue labelsAttribute = item.get("labels");
-                logger.info("Searching for images with label: {}", labelsAttribute);
-                if (nonNull(labelsAttribute) && nonNull(labelsAttribute.ss())) {
-                    boolean hasMatchingLabel = labelsAttribute.ss().stream()
-                            .anyMatch(label -> label.toLowerCase().contains(query));
-
-                    logger.info("Found matching images with label: {}", hasMatchingLabel);
-                    if (hasMatchingLabel) {
-                        AttributeValue primaryKeyAttribute = item.get("imageId");
-                        if (nonNull(primaryKeyAttribute) && nonNull(primaryKeyAttribute.s())) {
-                            imageIds.add(primaryKeyAttribute.s());
-                        }
-                    }
-                }
+            byte[] decoded = Base64.getUrlDecoder().decode(input.getQueryStringParameters().get("cursor"));
+            return new String(decoded, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    int extractLimit(APIGatewayProxyRequestEvent input) {
+        if (isNull(input.getQueryStringParameters()) || isNull(input.getQueryStringParameters().get("limit"))) {
+            return DEFAULT_PAGE_SIZE;
+        }
+
+        String limit = input.getQueryStringParameters().get("limit");
+        try {
+            int value = Integer.parseInt(limit.trim());
+            if (value >= 1 && value <= MAX_PAGE_SIZE) {
+                return value;
             }
-        } catch (DynamoDbException e) {
-            throw new RuntimeException("Error scanning DynamoDB table: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE + ": " + limit);
+    }
+
+    /**
+     * Returns the requested image variant: {@code original}, or the pixel size of an upload-time derivative
+     * such as {@code 128}. Images without that derivative are served as originals.
+     */
+    String extractVariant(APIGatewayProxyRequestEvent input) {
+        String variant = DEFAULT_IMAGE_VARIANT;
+        if (nonNull(input.getQueryStringParameters()) && nonNull(input.getQueryStringParameters().get("variant"))) {
+            variant = input.getQueryStringParameters().get("variant").trim();
         }
 
-        return imageIds;
+        if (ORIGINAL_VARIANT.equals(variant) || DERIVATIVE_PREFIX.isBlank()) {
+            return ORIGINAL_VARIANT;
+        }
+        if (variant.matches("[1-9][0-9]{0,4}")) {
+            return variant;
+        }
+        throw new IllegalArgumentException("variant must be '" + ORIGINAL_VARIANT + "' or a derivative size: " + variant);
+    }
+
+    /**
+     * Returns the matching image ids after {@code after} in key order, at most {@code limit} of them.
+     */
+    SearchPage searchImagesByLabel(LabelQuery query, String after, int limit) {
+        logger.info("Searching query: {}", query);
+        return paginate(labelIndex.findImages(query, after, limit + 1), after, limit);
+    }
+
+    private static SearchPage paginate(Collection<String> imageIds, String after, int limit) {
+        List<String> candidates = imageIds.stream()
+                .filter(imageId -> isNull(after) || imageId.compareTo(after) > 0)
+                .sorted()
+                .distinct()
+                .limit(limit + 1L)
+                .toList();
+
+        if (candidates.size() <= limit) {
+            return new SearchPage(candidates, null);
+        }
+        List<String> page = candidates.subList(0, limit);
+        return new SearchPage(page, encodeCursor(page.get(page.size() - 1)));
     }
 
-    private List<Image> loadImagesFromS3(List<String> imageNames) {
+    static String encodeCursor(String lastImageId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastImageId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The cursor for a page that stopped before {@code imageNames.get(stoppedAt)}: after the last image
+     * handled, or where the page started when none was. A first page resumes after {@code FIRST_CURSOR},
+     * which sorts before every image id, since a null cursor would mark the last page.
+     */
+    static String resumeCursor(String after, List<String> imageNames, int stoppedAt) {
+        if (stoppedAt > 0) {
+            return encodeCursor(imageNames.get(stoppedAt - 1));
+        }
+        return encodeCursor(isNull(after) ? FIRST_CURSOR : after);
+    }
+
+    /**
+     * Returns presigned GET URLs instead of image bytes, so clients download the images from the store directly.
+     * The function does no object I/O: derivatives are looked up in the index, and images without the
+     * requested one are linked as originals.
+     */
+    private List<ImageLink> presignImages(List<String> imageNames, String variant) {
+        Map<String, IndexedImage> indexed = indexedImages(imageNames, variant);
         return imageNames.stream()
-                .map(this::loadImageFromS3)
-                .filter(Objects::nonNull)
+                .map(imageName -> presignImage(imageName, derivativeOf(indexed.get(imageName), variant)
+                        .map(IndexedImage.Derivative::key)
+                        .orElse(imageName)))
                 .toList();
     }
 
-    private Image loadImageFromS3(String imageName) {
+    private ImageLink presignImage(String imageName, String objectKey) {
+        ImageBlobStore.Link link = blobStore.presign(objectKey, PRESIGNED_URL_TTL);
+        return new ImageLink(imageName, link.url(), link.expiresAt().toString());
+    }
+
+    /**
+     * Sizes the page's objects, from the index for derivatives and concurrently from the store for
+     * originals, and keeps the longest prefix whose base64 encoding fits in {@code RESPONSE_BYTE_BUDGET},
+     * before any object body is downloaded. When the page is cut short the cursor points after the last
+     * image kept, so the client resumes from there. Objects that cannot be sized are dropped, as reading
+     * them would fail too. Sizes are those of the requested variant.
+     */
+    BudgetedPage fitToResponseBudget(SearchPage page, String variant) {
+        List<String> imageNames = page.imageNames();
+        List<Future<StoredImage>> sizes = resolveStoredImages(imageNames, variant);
+
+        List<String> kept = new ArrayList<>();
+        List<String> oversized = new ArrayList<>();
+        Map<String, String> objectKeys = new HashMap<>();
+        long remaining = RESPONSE_BYTE_BUDGET;
+        int considered = 0;
         try {
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(BUCKET_NAME)
-                    .key(imageName)
-                    .build();
+            for (; considered < imageNames.size(); considered++) {
+                String imageName = imageNames.get(considered);
+                long contentLength;
+                try {
+                    StoredImage storedImage = sizes.get(considered).get();
+                    contentLength = storedImage.contentLength();
+                    objectKeys.put(imageName, storedImage.objectKey());
+                } catch (ExecutionException e) {
+                    logger.warn("Error sizing image {}: {}", imageName, e.getCause().getMessage());
+                    continue;
+                }
+
+                long encodedSize = (contentLength + 2) / 3 * 4 + imageName.length() + RESPONSE_ENTRY_OVERHEAD_BYTES;
+                if (encodedSize > RESPONSE_BYTE_BUDGET) {
+                    logger.warn("Image {} is too large to inline ({} bytes)", imageName, contentLength);
+                    oversized.add(imageName);
+                } else if (encodedSize > remaining) {
+                    break;
+                } else {
+                    kept.add(imageName);
+                    remaining -= encodedSize;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sizing images", e);
+        } finally {
+            sizes.forEach(future -> future.cancel(true));
+        }
+
+        if (considered == imageNames.size()) {
+            return new BudgetedPage(new SearchPage(kept, page.nextCursor()), oversized, objectKeys);
+        }
+        logger.info("Response budget reached after {} of {} images", considered, imageNames.size());
+        return new BudgetedPage(new SearchPage(kept, encodeCursor(imageNames.get(considered - 1))), oversized, objectKeys);
+    }
+
+    /**
+     * Finds the object for {@code variant} of each image: the derivative recorded in the index, with its
+     * size, or otherwise the original, sized with a lookup on the fetch pool.
+     */
+    private List<Future<StoredImage>> resolveStoredImages(List<String> imageNames, String variant) {
+        Map<String, IndexedImage> indexed = indexedImages(imageNames, variant);
+        List<Future<StoredImage>> storedImages = new ArrayList<>(imageNames.size());
+        for (String imageName : imageNames) {
+            Optional<IndexedImage.Derivative> derivative = derivativeOf(indexed.get(imageName), variant);
+            storedImages.add(derivative.isPresent()
+                    ? CompletableFuture.completedFuture(new StoredImage(derivative.get().key(), derivative.get().bytes()))
+                    : S3_FETCH_EXECUTOR.submit(() -> resolveOriginal(imageName)));
+        }
+        return storedImages;
+    }
+
+    /**
+     * The index entries of the images, which list their derivatives; none are needed for originals.
+     */
+    private Map<String, IndexedImage> indexedImages(List<String> imageNames, String variant) {
+        return ORIGINAL_VARIANT.equals(variant) ? Map.of() : labelIndex.getImages(imageNames);
+    }
+
+    private static Optional<IndexedImage.Derivative> derivativeOf(IndexedImage image, String variant) {
+        return isNull(image) ? Optional.empty() : Optional.ofNullable(image.derivatives().get(variant));
+    }
+
+    private StoredImage resolveOriginal(String imageName) {
+        OptionalLong size = blobStore.size(imageName);
+        if (size.isEmpty()) {
+            evictDeletedImage(imageName);
+            throw new NoSuchElementException("Image not found: " + imageName);
+        }
+        return new StoredImage(imageName, size.getAsLong());
+    }
 
-            ResponseBytes<GetObjectResponse> objectBytes = s3Client.getObjectAsBytes(getObjectRequest);
+    /**
+     * The upload function removes deleted images from the tables, but a warm label cache only sees that on
+     * its next refresh; drop the image from it now.
+     */
+    private synchronized void evictDeletedImage(String imageName) {
+        if (nonNull(warmLabelIndex)) {
+            warmLabelIndex.evict(imageName);
+        }
+    }
 
+    /**
+     * Fetches the page's images concurrently, at most {@code S3_FETCH_CONCURRENCY} at a time, and returns
+     * them in page order. Images that fail to load are left out. Images still pending when the invocation
+     * deadline approaches are cancelled, and the cursor then resumes at the first of them.
+     */
+    private LoadedImages loadImages(BudgetedPage budgetedPage, String after, Context context) {
+        long deadline = deadlineOf(context);
+        List<String> imageNames = budgetedPage.page().imageNames();
+
+        List<Future<Image>> pending = imageNames.stream()
+                .map(imageName -> S3_FETCH_EXECUTOR.submit(
+                        () -> loadImage(imageName, budgetedPage.objectKey(imageName))))
+                .toList();
+
+        List<Image> images = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                Image image = pending.get(i).get(timeout, TimeUnit.MILLISECONDS);
+                if (nonNull(image)) {
+                    images.add(image);
+                }
+            } catch (TimeoutException e) {
+                logger.warn("Deadline reached, returning {} of {} images", images.size(), imageNames.size());
+                pending.subList(i, pending.size()).forEach(future -> future.cancel(true));
+                return new LoadedImages(images, resumeCursor(after, imageNames, i));
+            } catch (InterruptedException e) {
+                pending.subList(i, pending.size()).forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                return new LoadedImages(images, resumeCursor(after, imageNames, i));
+            } catch (ExecutionException e) {
+                logger.warn("Error loading image {}: {}", imageNames.get(i), e.getCause().getMessage());
+            }
+        }
+        return new LoadedImages(images, budgetedPage.page().nextCursor());
+    }
+
+    /**
+     * Starts opening the object on the fetch pool; the returned blob knows its content type but its
+     * content has not been read yet.
+     */
+    Future<ImageBlobStore.Blob> openImage(String objectKey) {
+        return S3_FETCH_EXECUTOR.submit(() -> blobStore.open(objectKey));
+    }
+
+    /**
+     * Wall-clock time by which image loading must stop so the response can still be sent.
+     */
+    static long deadlineOf(Context context) {
+        return nonNull(context)
+                ? System.currentTimeMillis() + context.getRemainingTimeInMillis() - RESPONSE_TIME_RESERVE_MILLIS
+                : Long.MAX_VALUE;
+    }
+
+    Image loadImage(String imageName, String objectKey) {
+        try (ImageBlobStore.Blob blob = blobStore.open(objectKey)) {
             return new Image(
                     imageName,
-                    Base64.getEncoder().encodeToString(objectBytes.asByteArray()),
-                    nonNull(objectBytes.response().contentType()) ?
-                            objectBytes.response().contentType() : "image/jpeg"
+                    Base64.getEncoder().encodeToString(blob.content().readAllBytes()),
+                    nonNull(blob.contentType()) ? blob.contentType() : "image/jpeg"
             );
 
         } catch (Exception e) {
@@ -143,11 +573,23 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
         }
     }
 
-    private APIGatewayProxyResponseEvent createSuccessResponse(List<Image> images) {
+    private APIGatewayProxyResponseEvent createSuccessResponse(List<?> images, String nextCursor) {
+        return createSuccessResponse(images, nextCursor, List.of());
+    }
+
+    APIGatewayProxyResponseEvent createSuccessResponse(List<?> images,
+                                                       String nextCursor,
+                                                       List<String> oversizedImages) {
         try {
             Map<String, Object> responseBody = new HashMap<>();
             responseBody.put("success", true);
             responseBody.put("images", images);
+            if (nonNull(nextCursor)) {
+                responseBody.put("nextCursor", nextCursor);
+            }
+            if (!oversizedImages.isEmpty()) {
+                responseBody.put("oversizedImages", oversizedImages);
+            }
 
             return new APIGatewayProxyResponseEvent()
                     .withStatusCode(200)
@@ -162,7 +604,7 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
         }
     }
 
-    private APIGatewayProxyResponseEvent createErrorResponse(int statusCode, String message) {
+    APIGatewayProxyResponseEvent createErrorResponse(int statusCode, String message) {
         try {
             Map<String, Object> errorBody = new HashMap<>();
             errorBody.put("success", false);
@@ -182,4 +624,12 @@ public class SearchImageHandler implements RequestHandler<APIGatewayProxyRequest
                     .withBody("{\"success\":false,\"error\":\"Internal server error\"}");
         }
     }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
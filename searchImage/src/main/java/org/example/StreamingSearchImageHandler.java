@@ -0,0 +1,268 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Inline-mode search that writes the API Gateway proxy response straight to the Lambda output stream.
+ * <p>
+ * Each object is base64-encoded chunk by chunk from its content stream into the output, so no image
+ * is ever held in memory as a {@code byte[]} or {@code String} and peak heap does not depend on the size of
+ * the result. Up to {@code S3_FETCH_CONCURRENCY} objects are opened ahead of the one being written, and
+ * the page is trimmed to the response byte budget before anything is written.
+ * Requests without a query or for another response mode are delegated to {@link SearchImageHandler}.
+ */
+public class StreamingSearchImageHandler implements RequestStreamHandler, PrimingResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingSearchImageHandler.class);
+
+    // Multiple of 3, so every chunk but the last encodes without base64 padding.
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    private static final byte[] RESPONSE_PREFIX = ("{\"statusCode\":200,"
+            + "\"headers\":{\"Content-Type\":\"application/json\",\"Access-Control-Allow-Origin\":\"*\"},"
+            + "\"body\":\"{\\\"success\\\":true,\\\"images\\\":[").getBytes(StandardCharsets.UTF_8);
+
+    private final SearchImageHandler searchHandler;
+    private final ObjectMapper objectMapper;
+
+    public StreamingSearchImageHandler() {
+        this(new SearchImageHandler());
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * Streams the results of {@code searchHandler}, for local runs and benchmarks.
+     */
+    StreamingSearchImageHandler(SearchImageHandler searchHandler) {
+        this.searchHandler = searchHandler;
+        this.objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    /**
+     * Primes the event parsing and envelope writing of this handler; {@link SearchImageHandler} primes
+     * the search itself.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws IOException {
+        byte[] event = "{\"queryStringParameters\":{\"keyword\":\"dog\",\"mode\":\"inline\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+        readRequest(new ByteArrayInputStream(event));
+        writeResponse(new APIGatewayProxyResponseEvent()
+                .withStatusCode(200)
+                .withHeaders(Map.of("Content-Type", "application/json"))
+                .withBody("{}"), OutputStream.nullOutputStream());
+        escapeTwice("prime \"image\".jpg");
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        APIGatewayProxyRequestEvent request = readRequest(input);
+
+        String query = searchHandler.extractQuery(request);
+        if (isNull(query) || query.trim().isEmpty() || !"inline".equals(searchHandler.extractResponseMode(request))) {
+            writeResponse(searchHandler.handleRequest(request, context), output);
+            return;
+        }
+
+        LabelQuery labelQuery;
+        String after;
+        int limit;
+        String variant;
+        try {
+            labelQuery = LabelQuery.parse(query);
+            after = searchHandler.extractCursor(request);
+            limit = searchHandler.extractLimit(request);
+            variant = searchHandler.extractVariant(request);
+        } catch (IllegalArgumentException e) {
+            writeResponse(searchHandler.createErrorResponse(400, e.getMessage()), output);
+            return;
+        }
+
+        SearchImageHandler.BudgetedPage budgetedPage;
+        try {
+            SearchImageHandler.SearchPage page = searchHandler.searchImagesByLabel(labelQuery, after, limit);
+            budgetedPage = searchHandler.fitToResponseBudget(page, variant);
+        } catch (RuntimeException e) {
+            logger.error("Error searching images", e);
+            writeResponse(searchHandler.createErrorResponse(500, "Internal server error: " + e.getMessage()), output);
+            return;
+        }
+
+        logger.info("Streaming {} matching images", budgetedPage.page().imageNames().size());
+        streamImages(budgetedPage, after, output, SearchImageHandler.deadlineOf(context));
+    }
+
+    private APIGatewayProxyRequestEvent readRequest(InputStream input) throws IOException {
+        JsonNode event = objectMapper.readTree(input);
+        Map<String, String> parameters = new HashMap<>();
+        JsonNode queryStringParameters = event.path("queryStringParameters");
+        queryStringParameters.fields().forEachRemaining(field -> parameters.put(field.getKey(), field.getValue().asText()));
+
+        return new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(queryStringParameters.isObject() ? parameters : null);
+    }
+
+    private void writeResponse(APIGatewayProxyResponseEvent response, OutputStream output) throws IOException {
+        objectMapper.writeValue(output, response);
+    }
+
+    /**
+     * Writes the page in order. When the deadline stops it early, the cursor resumes at the first image not
+     * written, so the client does not skip the rest of the page.
+     */
+    private void streamImages(SearchImageHandler.BudgetedPage budgetedPage,
+                              String after,
+                              OutputStream output,
+                              long deadline) throws IOException {
+        SearchImageHandler.SearchPage page = budgetedPage.page();
+        List<String> imageNames = page.imageNames();
+        OutputStream out = new BufferedOutputStream(output, CHUNK_SIZE);
+        out.write(RESPONSE_PREFIX);
+
+        Deque<Future<ImageBlobStore.Blob>> opening = new ArrayDeque<>();
+        Iterator<String> remaining = imageNames.iterator();
+        String nextCursor = page.nextCursor();
+        boolean first = true;
+
+        try {
+            for (int position = 0; position < imageNames.size(); position++) {
+                while (opening.size() < SearchImageHandler.S3_FETCH_CONCURRENCY && remaining.hasNext()) {
+                    opening.add(searchHandler.openImage(budgetedPage.objectKey(remaining.next())));
+                }
+
+                String imageName = imageNames.get(position);
+                Future<ImageBlobStore.Blob> next = opening.removeFirst();
+                ImageBlobStore.Blob object;
+                try {
+                    long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                    object = next.get(timeout, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    logger.warn("Deadline reached while streaming, stopping before image {}", imageName);
+                    discard(next);
+                    nextCursor = SearchImageHandler.resumeCursor(after, imageNames, position);
+                    break;
+                } catch (ExecutionException e) {
+                    logger.warn("Error loading image {}: {}", imageName, e.getCause().getMessage());
+                    continue;
+                } catch (InterruptedException e) {
+                    discard(next);
+                    Thread.currentThread().interrupt();
+                    nextCursor = SearchImageHandler.resumeCursor(after, imageNames, position);
+                    break;
+                }
+
+                try (ImageBlobStore.Blob blob = object) {
+                    // Read ahead of writing the entry, so an image that fails at once is left out entirely.
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int read;
+                    try {
+                        read = blob.content().readNBytes(chunk, 0, chunk.length);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Error reading image {}: {}", imageName, e.getMessage());
+                        continue;
+                    }
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    writeImage(imageName, blob, chunk, read, out);
+                }
+            }
+        } finally {
+            opening.forEach(StreamingSearchImageHandler::discard);
+        }
+
+        out.write(']');
+        if (nonNull(nextCursor)) {
+            out.write((",\\\"nextCursor\\\":\\\"" + escapeTwice(nextCursor) + "\\\"")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        if (!budgetedPage.oversizedImages().isEmpty()) {
+            StringJoiner oversized = new StringJoiner(",", ",\\\"oversizedImages\\\":[", "]");
+            budgetedPage.oversizedImages().forEach(imageName -> oversized.add("\\\"" + escapeTwice(imageName) + "\\\""));
+            out.write(oversized.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        out.write("}\"}".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Writes one image entry, starting with the {@code read} bytes already in {@code chunk}. When reading
+     * the rest of the content fails, the entry is closed early with an {@code error} field, so the response
+     * stays well-formed; errors writing to {@code out} are thrown.
+     */
+    private void writeImage(String imageName, ImageBlobStore.Blob blob, byte[] chunk, int read, OutputStream out)
+            throws IOException {
+        String contentType = nonNull(blob.contentType()) ? blob.contentType() : "image/jpeg";
+
+        out.write(("{\\\"imageName\\\":\\\"" + escapeTwice(imageName) + "\\\",\\\"imageData\\\":\\\"")
+                .getBytes(StandardCharsets.UTF_8));
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+        boolean complete = true;
+        while (read > 0) {
+            int length = encoder.encode(read == chunk.length ? chunk : Arrays.copyOf(chunk, read), encoded);
+            out.write(encoded, 0, length);
+            try {
+                read = blob.content().readNBytes(chunk, 0, chunk.length);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Error reading image {} while streaming it: {}", imageName, e.getMessage());
+                complete = false;
+                break;
+            }
+        }
+
+        out.write(("\\\",\\\"contentType\\\":\\\"" + escapeTwice(contentType) + "\\\""
+                + (complete ? "" : ",\\\"error\\\":\\\"Image data is incomplete\\\"") + "}")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Cancels an open that has not completed yet, or closes the stream of one that has.
+     */
+    private static void discard(Future<ImageBlobStore.Blob> future) {
+        if (future.cancel(true) || !future.isDone()) {
+            return;
+        }
+        try {
+            future.get().close();
+        } catch (Exception e) {
+            logger.debug("Ignoring error closing unused image stream: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Escapes a value for the inner JSON body and again for the string the body is embedded in.
+     */
+    private static String escapeTwice(String value) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        return new String(encoder.quoteAsString(new String(encoder.quoteAsString(value))));
+    }
+}
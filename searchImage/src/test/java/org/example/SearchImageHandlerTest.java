@@ -0,0 +1,95 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchImageHandlerTest {
+
+    @Test
+    void servesRequestsAfterCheckpointAndRestoreWithInMemoryWiring() {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex();
+        blobStore.put("dog.jpg", new byte[]{1, 2, 3}, "image/jpeg");
+        labelIndex.put(new IndexedImage("dog.jpg", List.of("Dog", "Animal"), null, null, null, Map.of(), 0));
+        SearchImageHandler handler = new SearchImageHandler(blobStore, labelIndex);
+
+        handler.beforeCheckpoint(null);
+        handler.afterRestore(null);
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("keyword", "dog", "mode", "inline", "variant", "original")), null);
+
+        assertEquals(200, response.getStatusCode());
+        assertTrue(response.getBody().contains("\"imageName\":\"dog.jpg\""), response.getBody());
+    }
+
+    @Test
+    void cursorsPageThroughEveryMatchOnceInKeyOrder() {
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 45; i++) {
+            String imageId = String.format("images/%03d.jpg", i);
+            boolean dog = i % 3 != 0;
+            labelIndex.put(new IndexedImage(imageId, List.of(dog ? "Hot Dog" : "Cat"), null, null, null, Map.of(), 0));
+            if (dog) {
+                expected.add(imageId);
+            }
+        }
+        assertEquals(45, labelIndex.size());
+        SearchImageHandler handler = new SearchImageHandler(new InMemoryImageBlobStore(), labelIndex);
+        LabelQuery query = LabelQuery.parse("dog");
+
+        List<String> seen = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            SearchImageHandler.SearchPage page = handler.searchImagesByLabel(query, after, 7);
+            seen.addAll(page.imageNames());
+            pages++;
+            after = page.nextCursor() == null ? null : handler.extractCursor(new APIGatewayProxyRequestEvent()
+                    .withQueryStringParameters(Map.of("cursor", page.nextCursor())));
+        } while (after != null);
+
+        assertEquals(expected, seen);
+        assertEquals((expected.size() + 6) / 7, pages);
+    }
+
+    @Test
+    void resumeCursorContinuesAfterTheLastImageHandled() {
+        SearchImageHandler handler = new SearchImageHandler(new InMemoryImageBlobStore(), new InMemoryLabelIndex());
+        List<String> page = List.of("a", "b", "c");
+
+        assertEquals("b", decode(handler, SearchImageHandler.resumeCursor(null, page, 2)));
+        assertEquals("previous", decode(handler, SearchImageHandler.resumeCursor("previous", page, 0)));
+        // Stopping before the first image of the first page resumes before every image id.
+        assertTrue(decode(handler, SearchImageHandler.resumeCursor(null, page, 0)).compareTo("a") < 0);
+    }
+
+    @Test
+    void malformedParametersAreRejectedWith400() {
+        SearchImageHandler handler = new SearchImageHandler(new InMemoryImageBlobStore(), new InMemoryLabelIndex());
+
+        for (Map<String, String> parameters : List.of(
+                Map.of("keyword", "dog", "limit", "0"),
+                Map.of("keyword", "dog", "cursor", "not base64!"),
+                Map.of("keyword", "dog AND"),
+                Map.of("keyword", "dog", "variant", "huge"))) {
+            APIGatewayProxyResponseEvent response = handler.handleRequest(
+                    new APIGatewayProxyRequestEvent().withQueryStringParameters(parameters), null);
+            assertEquals(400, response.getStatusCode(), parameters.toString());
+        }
+        assertEquals(400, handler.handleRequest(new APIGatewayProxyRequestEvent(), null).getStatusCode());
+    }
+
+    private static String decode(SearchImageHandler handler, String cursor) {
+        return handler.extractCursor(new APIGatewayProxyRequestEvent().withQueryStringParameters(Map.of("cursor", cursor)));
+    }
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * AIMD concurrency limiter shared by every caller in the container.
+ * <p>
+ * At most {@code floor(limit)} calls run at once. Each successful call raises the limit by {@code 1/limit}
+ * (about one slot per round of calls). A throttled call halves it, once per round: calls that started
+ * before the last decrease were sent at the old limit, so their throttles do not halve it again. Calls
+ * failing for other reasons leave the limit alone. Throttled calls are retried with full-jitter
+ * exponential backoff, so during a burst callers queue here instead of failing against the service's
+ * rate limit.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private final double minLimit;
+    private final double maxLimit;
+    private final int maxAttempts;
+
+    private enum Outcome { SUCCEEDED, THROTTLED, FAILED }
+
+    private double limit;
+    private int inFlight;
+    // Incremented on every decrease; calls remember the value they started with.
+    private long decreases;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit, int maxAttempts) {
+        if (initialLimit < 1 || maxLimit < initialLimit || maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid limiter settings: initial=" + initialLimit
+                    + ", max=" + maxLimit + ", attempts=" + maxAttempts);
+        }
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.maxAttempts = maxAttempts;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Runs {@code call} within the limit, retrying while it fails with an exception accepted by
+     * {@code isThrottling}. The last throttling exception is rethrown once the attempts are used up.
+     */
+    <T> T call(Supplier<T> call, Predicate<RuntimeException> isThrottling) {
+        for (int attempt = 1; ; attempt++) {
+            long startedAt = acquire();
+            T result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                boolean throttled = isThrottling.test(e);
+                release(startedAt, throttled ? Outcome.THROTTLED : Outcome.FAILED);
+                if (!throttled || attempt >= maxAttempts) {
+                    throw e;
+                }
+                backOff(attempt);
+                continue;
+            }
+            release(startedAt, Outcome.SUCCEEDED);
+            return result;
+        }
+    }
+
+    synchronized double currentLimit() {
+        return limit;
+    }
+
+    /**
+     * Waits for a slot and returns the number of decreases so far.
+     */
+    private synchronized long acquire() {
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a concurrency slot", e);
+        }
+        inFlight++;
+        return decreases;
+    }
+
+    private synchronized void release(long startedAt, Outcome outcome) {
+        inFlight--;
+        if (outcome == Outcome.THROTTLED && startedAt == decreases) {
+            limit = Math.max(minLimit, limit / 2);
+            decreases++;
+        } else if (outcome == Outcome.SUCCEEDED) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    private static void backOff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 10));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+}
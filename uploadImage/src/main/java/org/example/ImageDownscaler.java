@@ -0,0 +1,209 @@
+package org.example;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Decodes images with bounded memory and produces smaller JPEG renditions.
+ * <p>
+ * Decoding reads the dimensions from the header first and then uses source subsampling, so a huge image
+ * is never materialised at full resolution: only every n-th pixel of every n-th row is decoded, with n
+ * chosen so the decoded image is still at least {@code targetDimension} on its longest side. JPEGs are
+ * turned upright according to their EXIF orientation, as Rekognition and viewers of the derivatives
+ * expect; ImageIO itself ignores it.
+ */
+final class ImageDownscaler {
+
+    private static final int SOI_MARKER = 0xFFD8;
+    private static final int FIRST_APP_MARKER = 0xFFE0;
+    private static final int APP1_MARKER = 0xFFE1;
+    private static final int LAST_APP_MARKER = 0xFFEF;
+    private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+        // Keep ImageIO's stream cache in memory; reads are sequential and /tmp is small.
+        ImageIO.setUseCache(false);
+    }
+
+    private ImageDownscaler() {
+    }
+
+    /**
+     * Decodes {@code input}, subsampled towards {@code targetDimension} and upright. Returns empty when no
+     * installed ImageIO reader understands the data (for example WEBP).
+     */
+    static Optional<BufferedImage> decode(InputStream input, int targetDimension) throws IOException {
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return Optional.empty();
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                int orientation = "jpeg".equalsIgnoreCase(reader.getFormatName()) ? exifOrientation(imageInput) : 1;
+                reader.setInput(imageInput, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / Math.max(1, targetDimension));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                return Optional.of(orient(image, orientation));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * The EXIF orientation of a JPEG, read from the APP1 segment among the application segments that follow
+     * SOI; 1 (upright) when there is none. The stream is left where it was.
+     */
+    private static int exifOrientation(ImageInputStream input) throws IOException {
+        input.mark();
+        try {
+            if (input.readUnsignedShort() != SOI_MARKER) {
+                return 1;
+            }
+            while (true) {
+                int marker = input.readUnsignedShort();
+                if (marker < FIRST_APP_MARKER || marker > LAST_APP_MARKER) {
+                    return 1;
+                }
+                int length = input.readUnsignedShort() - 2;
+                if (marker != APP1_MARKER || length < EXIF_HEADER.length) {
+                    input.skipBytes(length);
+                    continue;
+                }
+                byte[] segment = new byte[length];
+                input.readFully(segment);
+                if (Arrays.equals(segment, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+                    return exifOrientation(segment);
+                }
+            }
+        } catch (EOFException e) {
+            return 1;
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Reads the orientation tag from the first IFD of an APP1 Exif segment.
+     */
+    static int exifOrientation(byte[] app1) {
+        if (app1.length < EXIF_HEADER.length + 8
+                || !Arrays.equals(app1, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length)) {
+            return 1;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(app1, EXIF_HEADER.length, app1.length - EXIF_HEADER.length).slice();
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M') {
+            return 1;
+        }
+
+        try {
+            int ifd = tiff.getInt(4);
+            int entries = Short.toUnsignedInt(tiff.getShort(ifd));
+            for (int entry = 0; entry < entries; entry++) {
+                int offset = ifd + 2 + entry * 12;
+                if (Short.toUnsignedInt(tiff.getShort(offset)) == ORIENTATION_TAG) {
+                    int orientation = Short.toUnsignedInt(tiff.getShort(offset + 8));
+                    return orientation >= 1 && orientation <= 8 ? orientation : 1;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // A truncated segment: treat the image as upright.
+        }
+        return 1;
+    }
+
+    /**
+     * Applies an EXIF orientation: 2 to 4 mirror or turn the image within its bounds, 5 to 8 also swap
+     * width and height.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> null;
+        };
+        if (isNull(transform)) {
+            return image;
+        }
+        return new AffineTransformOp(transform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR).filter(image, null);
+    }
+
+    /**
+     * Scales {@code image} so its longest side is at most {@code maxDimension}, flattening transparency
+     * onto white so the result can be encoded as JPEG. Images that already fit are only flattened.
+     */
+    static BufferedImage resize(BufferedImage image, int maxDimension) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutput);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+import java.util.Optional;
+
+/**
+ * Image formats recognised from their leading bytes. {@link #SNIFF_LENGTH} bytes are enough to tell all
+ * of them apart. Only some of them can be sent to label detection as they are; see {@link #isDetectable()}.
+ */
+enum ImageFormat {
+
+    JPEG("image/jpeg", true),
+    PNG("image/png", true),
+    GIF("image/gif", false),
+    BMP("image/bmp", false),
+    WEBP("image/webp", false);
+
+    static final int SNIFF_LENGTH = 32;
+
+    private final String contentType;
+    private final boolean detectable;
+
+    ImageFormat(String contentType, boolean detectable) {
+        this.contentType = contentType;
+        this.detectable = detectable;
+    }
+
+    String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Whether Rekognition accepts the format, by reference or as bytes; others must be transcoded first.
+     */
+    boolean isDetectable() {
+        return detectable;
+    }
+
+    static Optional<ImageFormat> sniff(byte[] header) {
+        if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return Optional.of(JPEG);
+        }
+        if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return Optional.of(PNG);
+        }
+        if (startsWith(header, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(header, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return Optional.of(GIF);
+        }
+        if (startsWith(header, 0, 'B', 'M') && header.length >= 14) {
+            return Optional.of(BMP);
+        }
+        if (startsWith(header, 0, 'R', 'I', 'F', 'F') && startsWith(header, 8, 'W', 'E', 'B', 'P')) {
+            return Optional.of(WEBP);
+        }
+        return Optional.empty();
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... signature) {
+        if (data.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((data[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.isNull;
+import static org.example.Environment.intEnv;
+
+/**
+ * One-off job that writes the postings and n-grams of the images indexed before the posting and gram
+ * tables existed, run with {@code ./gradlew :uploadImage:backfillLabelIndex} and the same
+ * {@code DYNAMODB_TABLE_NAME}, {@code LABEL_INDEX_TABLE_NAME}, {@code LABEL_GRAM_TABLE_NAME} and
+ * {@code LABEL_NGRAM_SIZE} as the functions, plus AWS credentials that can scan the image table and
+ * write the other two. {@code BACKFILL_SEGMENTS} (default 8) sets how many scan segments run at once.
+ * <p>
+ * Migrating a catalogue to the posting table:
+ * <ol>
+ *   <li>configure both tables on the upload function, so every image indexed from then on gets its
+ *       postings and n-grams;</li>
+ *   <li>run this job; it can be run again if it fails;</li>
+ *   <li>set {@code LABEL_INDEX_BACKFILLED=true} on the search function, which then queries the posting
+ *       table instead of scanning.</li>
+ * </ol>
+ */
+public final class LabelIndexBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(LabelIndexBackfill.class);
+
+    private LabelIndexBackfill() {
+    }
+
+    public static void main(String[] args) {
+        String tableName = requireEnv("DYNAMODB_TABLE_NAME");
+        String postingTableName = requireEnv("LABEL_INDEX_TABLE_NAME");
+        String gramTableName = requireEnv("LABEL_GRAM_TABLE_NAME");
+        int ngramSize = Math.max(1, intEnv("LABEL_NGRAM_SIZE", 3));
+        int segments = Math.max(1, intEnv("BACKFILL_SEGMENTS", 8));
+
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        try (DynamoDbClient dynamoDbClient = AwsClientFactory.create(
+                DynamoDbClient.builder().endpointDiscoveryEnabled(false), "DYNAMODB_ENDPOINT")) {
+            DynamoDbLabelIndex labelIndex = new DynamoDbLabelIndex(dynamoDbClient, tableName, postingTableName,
+                    gramTableName, null, null, false, ngramSize, executor, segments);
+
+            long startedMillis = System.currentTimeMillis();
+            int backfilled = labelIndex.backfillLabelIndex();
+            logger.info("Backfilled the postings of {} images in {} s", backfilled,
+                    (System.currentTimeMillis() - startedMillis) / 1000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String requireEnv(String name) {
+        String value = System.getenv(name);
+        if (isNull(value) || value.isBlank()) {
+            throw new IllegalStateException("Missing required environment variable: " + name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.amazonaws.services.lambda.runtime.serialization.PojoSerializer;
+import com.amazonaws.services.lambda.runtime.serialization.events.LambdaEventSerializers;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Entry point for S3 notifications delivered through SQS. All records of all messages in the batch are
+ * processed together, and only the messages containing a record that failed are reported back in
+ * {@code batchItemFailures}, so SQS redelivers just those. The event source mapping must enable
+ * {@code ReportBatchItemFailures}.
+ */
+public class SqsUploadImageHandler implements RequestHandler<SQSEvent, SQSBatchResponse>, PrimingResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqsUploadImageHandler.class);
+
+    private static final PojoSerializer<S3Event> S3_EVENT_SERIALIZER =
+            LambdaEventSerializers.serializerFor(S3Event.class, SqsUploadImageHandler.class.getClassLoader());
+
+    private static final String PRIMING_NOTIFICATION = "{\"Records\":[{\"eventVersion\":\"2.1\","
+            + "\"eventSource\":\"aws:s3\",\"eventName\":\"ObjectCreated:Put\",\"eventTime\":\"1970-01-01T00:00:00.000Z\","
+            + "\"s3\":{\"bucket\":{\"name\":\"prime\"},\"object\":{\"key\":\"prime.jpg\",\"size\":1,"
+            + "\"eTag\":\"prime\",\"sequencer\":\"0055AED6DCD90281E5\"}}}]}";
+
+    private final UploadImageHandler uploadHandler;
+
+    public SqsUploadImageHandler() {
+        this.uploadHandler = new UploadImageHandler();
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * Primes notification parsing; {@link UploadImageHandler} primes the record processing itself.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        S3_EVENT_SERIALIZER.fromJson(PRIMING_NOTIFICATION).getRecords()
+                .forEach(record -> record.getS3().getObject().getUrlDecodedKey());
+        new SQSBatchResponse(List.of(new SQSBatchResponse.BatchItemFailure("prime")));
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent sqsEvent, Context context) {
+        if (isNull(sqsEvent) || isNull(sqsEvent.getRecords()) || sqsEvent.getRecords().isEmpty()) {
+            logger.warn("Received empty or null SQS event");
+            return new SQSBatchResponse(List.of());
+        }
+
+        uploadHandler.requireTableName();
+
+        Set<String> failedMessageIds = new LinkedHashSet<>();
+        Map<String, List<String>> messageIdsByKey = new HashMap<>();
+        List<S3EventNotification.S3EventNotificationRecord> records = new ArrayList<>();
+
+        for (SQSEvent.SQSMessage message : sqsEvent.getRecords()) {
+            try {
+                S3Event s3Event = S3_EVENT_SERIALIZER.fromJson(message.getBody());
+                if (isNull(s3Event.getRecords())) {
+                    // s3:TestEvent and other notifications without records need no work.
+                    continue;
+                }
+                for (S3EventNotification.S3EventNotificationRecord record : s3Event.getRecords()) {
+                    records.add(record);
+                    messageIdsByKey.computeIfAbsent(record.getS3().getObject().getKey(), key -> new ArrayList<>())
+                            .add(message.getMessageId());
+                }
+            } catch (Exception e) {
+                logger.error("Unreadable S3 notification in message: {}", message.getMessageId(), e);
+                failedMessageIds.add(message.getMessageId());
+            }
+        }
+
+        if (!records.isEmpty()) {
+            for (String failedKey : uploadHandler.processRecords(records, context)) {
+                failedMessageIds.addAll(messageIdsByKey.getOrDefault(failedKey, List.of()));
+            }
+        }
+
+        logger.info("Processed {} messages, {} failed", sqsEvent.getRecords().size(), failedMessageIds.size());
+        return new SQSBatchResponse(failedMessageIds.stream()
+                .map(SQSBatchResponse.BatchItemFailure::new)
+                .toList());
+    }
+}
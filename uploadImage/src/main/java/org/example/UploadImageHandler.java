@@ -4,34 +4,216 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import org.crac.Core;
+import org.crac.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
-import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
-import software.amazon.awssdk.services.rekognition.model.*;
+import software.amazon.awssdk.services.s3.S3Client;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static org.example.Environment.intEnv;
 
 
-public class UploadImageHandler implements RequestHandler<S3Event, String> {
+public class UploadImageHandler implements RequestHandler<S3Event, String>, Resource {
 
     private static final Logger logger = LoggerFactory.getLogger(UploadImageHandler.class);
 
-    private final Region REGION = Region.EU_CENTRAL_1;
     private final String TABLE_NAME = System.getenv("DYNAMODB_TABLE_NAME");
+    private final String INDEX_TABLE_NAME = System.getenv("LABEL_INDEX_TABLE_NAME");
+    private final String GRAM_TABLE_NAME = System.getenv("LABEL_GRAM_TABLE_NAME");
+    private final String LABEL_CACHE_TABLE_NAME = System.getenv("LABEL_CACHE_TABLE_NAME");
+    private final int NGRAM_SIZE = Math.max(1, intEnv("LABEL_NGRAM_SIZE", 3));
 
-    private final RekognitionClient rekognitionClient;
-    private final DynamoDbClient dynamoDbClient;
+    // Images above DOWNSCALE_MIN_BYTES are sent to Rekognition as a JPEG at most this many pixels on the
+    // longest side; 0 sends every image as an S3 reference.
+    private static final int MAX_IMAGE_DIMENSION = Math.max(0, intEnv("MAX_IMAGE_DIMENSION", 0));
+    private static final long DOWNSCALE_MIN_BYTES = Math.max(0, intEnv("DOWNSCALE_MIN_BYTES", 1_000_000));
+    private static final float DOWNSCALE_JPEG_QUALITY = Math.min(100, Math.max(1, intEnv("DOWNSCALE_JPEG_QUALITY", 85))) / 100f;
+    // Rekognition rejects image bytes above 5 MB; a downscaled JPEG that is still larger goes by reference.
+    private static final int MAX_INLINE_IMAGE_BYTES = 5 * 1024 * 1024;
+    // Formats Rekognition cannot read (GIF, BMP) are sent as a JPEG at most this many pixels on the longest side.
+    private static final int TRANSCODE_DIMENSION = Math.max(1, intEnv("TRANSCODE_DIMENSION", 1600));
+
+    // JPEG renditions written next to each upload at <prefix><size>/<key>.jpg for search to serve.
+    // Keys under the prefix are never indexed, so writing derivatives does not retrigger this function.
+    private static final String DERIVATIVE_PREFIX = Objects.requireNonNullElse(System.getenv("DERIVATIVE_PREFIX"), "derivatives/");
+    private static final List<Integer> DERIVATIVE_SIZES = DERIVATIVE_PREFIX.isBlank()
+            ? List.of()
+            : intListEnv("DERIVATIVE_SIZES", "128,512");
+    private static final float DERIVATIVE_JPEG_QUALITY = Math.min(100, Math.max(1, intEnv("DERIVATIVE_JPEG_QUALITY", 80))) / 100f;
+
+    private static final int SEQUENCER_WIDTH = 32;
+
+    private static final int RECORD_CONCURRENCY = Math.max(1, intEnv("RECORD_CONCURRENCY", 8));
+
+    // One budget for all concurrent records in the container, so bursts back off together.
+    private static final AdaptiveConcurrencyLimiter REKOGNITION_LIMITER = new AdaptiveConcurrencyLimiter(
+            Math.max(1, intEnv("REKOGNITION_INITIAL_CONCURRENCY", 4)),
+            Math.max(Math.max(1, intEnv("REKOGNITION_INITIAL_CONCURRENCY", 4)), intEnv("REKOGNITION_MAX_CONCURRENCY", 16)),
+            Math.max(1, intEnv("REKOGNITION_MAX_ATTEMPTS", 5))
+    );
+
+    // Source version (versionId, or eTag when unversioned) last indexed per key by this container.
+    private static final int RECENTLY_INDEXED_CAPACITY = Math.max(1, intEnv("RECENTLY_INDEXED_CAPACITY", 10_000));
+    private static final Map<String, String> RECENTLY_INDEXED = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > RECENTLY_INDEXED_CAPACITY;
+                }
+            });
+
+    // Labels by content hash, in front of the label cache of the index.
+    private static final int LABEL_CACHE_CAPACITY = Math.max(1, intEnv("LABEL_CACHE_CAPACITY", 1_000));
+    private static final Map<String, List<String>> LABEL_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                    return size() > LABEL_CACHE_CAPACITY;
+                }
+            });
+
+    private static final Map<String, Optional<ImageFormat>> SNIFFED_FORMATS = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Optional<ImageFormat>> eldest) {
+                    return size() > RECENTLY_INDEXED_CAPACITY;
+                }
+            });
+
+    private static final ExecutorService RECORD_EXECUTOR = Executors.newFixedThreadPool(RECORD_CONCURRENCY, runnable -> {
+        Thread thread = new Thread(runnable, "upload-record");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Behind the detector, index and stores built by createClients, and replaced with them by afterRestore;
+    // null when the handler was given those.
+    private RekognitionClient rekognitionClient;
+    private DynamoDbClient dynamoDbClient;
+    private S3Client s3Client;
+    private LabelDetector labelDetector;
+    private LabelIndex labelIndex;
+    private Function<String, ImageBlobStore> blobStores;
+
+    /**
+     * State shared by the records of one invocation: buffered writes, keys that failed, and the source
+     * version queued for each key (remembered as indexed once the writes are flushed).
+     */
+    private record RecordBatch(LabelIndex.WriteBatch writes, Set<String> failedKeys, Map<String, String> queuedVersions) {}
 
     public UploadImageHandler() {
-        rekognitionClient = RekognitionClient.builder().region(REGION).build();
-        dynamoDbClient = DynamoDbClient.builder().region(REGION).build();
+        createClients();
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * Indexes with the given detector and index, reading objects from the store {@code blobStores} returns
+     * for the bucket of each record, instead of Rekognition, DynamoDB and S3; for local runs and benchmarks.
+     */
+    UploadImageHandler(LabelDetector labelDetector, LabelIndex labelIndex, Function<String, ImageBlobStore> blobStores) {
+        this.labelDetector = labelDetector;
+        this.labelIndex = labelIndex;
+        this.blobStores = blobStores;
+    }
+
+    private void createClients() {
+        rekognitionClient = AwsClientFactory.create(RekognitionClient.builder(), "REKOGNITION_ENDPOINT");
+        dynamoDbClient = AwsClientFactory.create(DynamoDbClient.builder().endpointDiscoveryEnabled(false), "DYNAMODB_ENDPOINT");
+        s3Client = AwsClientFactory.create(S3Client.builder(), "S3_ENDPOINT");
+
+        S3Client bucketClient = s3Client;
+        Map<String, ImageBlobStore> storesByBucket = new ConcurrentHashMap<>();
+        labelDetector = new RekognitionLabelDetector(rekognitionClient);
+        labelIndex = new DynamoDbLabelIndex(dynamoDbClient, TABLE_NAME, INDEX_TABLE_NAME, GRAM_TABLE_NAME,
+                LABEL_CACHE_TABLE_NAME, null, false, NGRAM_SIZE, null, 1);
+        blobStores = bucket -> storesByBucket.computeIfAbsent(bucket, name -> new S3ImageBlobStore(bucketClient, null, name));
+    }
+
+    /**
+     * Runs the record path once without indexing anything before a SnapStart snapshot: image sniffing,
+     * ImageIO decoding and JPEG encoding, building an index record and an index read, so restored containers do not
+     * pay for that class loading and first-call JIT. Rekognition is not called, as every call is billed.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws IOException {
+        logger.info("Priming upload before checkpoint");
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_ARGB), "png", png);
+        byte[] bytes = png.toByteArray();
+        ImageFormat.sniff(Arrays.copyOf(bytes, Math.min(bytes.length, ImageFormat.SNIFF_LENGTH)));
+        Optional<BufferedImage> decoded = ImageDownscaler.decode(new ByteArrayInputStream(bytes), 32);
+        if (decoded.isPresent()) {
+            ImageDownscaler.encodeJpeg(ImageDownscaler.resize(decoded.get(), 16), DERIVATIVE_JPEG_QUALITY);
+        }
+
+        new IndexedImage("prime.jpg", List.of("Dog", "Animal"), "\"prime\"", "prime",
+                normalizeSequencer("0055AED6DCD90281E5"), Map.of(), System.currentTimeMillis() / 1000);
+
+        if (nonNull(TABLE_NAME) && !TABLE_NAME.isEmpty()) {
+            try {
+                labelIndex.findImage("__prime__");
+            } catch (RuntimeException e) {
+                logger.info("Priming call to DynamoDB GetItem failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces the SDK clients, whose pooled connections and cached credentials belong to the container the
+     * snapshot was taken in. A handler given its detector, index and stores has no clients, and keeps them.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        if (isNull(rekognitionClient)) {
+            return;
+        }
+        RekognitionClient previousRekognitionClient = rekognitionClient;
+        DynamoDbClient previousDynamoDbClient = dynamoDbClient;
+        S3Client previousS3Client = s3Client;
+
+        createClients();
+
+        previousRekognitionClient.close();
+        previousDynamoDbClient.close();
+        previousS3Client.close();
+        logger.info("Recreated AWS clients after restore");
     }
 
     @Override
@@ -42,15 +224,10 @@ public class UploadImageHandler implements RequestHandler<S3Event, String> {
             return "No records to process";
         }
 
-        if (isNull(TABLE_NAME) || TABLE_NAME.isEmpty()) {
-            logger.error("DYNAMODB_TABLE_NAME environment variable is not set");
-            throw new IllegalStateException("Missing required environment variable: DYNAMODB_TABLE_NAME");
-        }
+        requireTableName();
 
         try {
-            for (S3EventNotification.S3EventNotificationRecord record : s3Event.getRecords()) {
-                processRecord(record, context);
-            }
+            processRecords(s3Event.getRecords(), context);
             return "Successfully processed " + s3Event.getRecords().size() + " records";
         } catch (Exception e) {
             logger.error("Error processing S3 event", e);
@@ -58,55 +235,497 @@ public class UploadImageHandler implements RequestHandler<S3Event, String> {
         }
     }
 
-    private void processRecord(S3EventNotification.S3EventNotificationRecord record, Context context) {
+    void requireTableName() {
+        if (labelIndex instanceof DynamoDbLabelIndex && (isNull(TABLE_NAME) || TABLE_NAME.isEmpty())) {
+            logger.error("DYNAMODB_TABLE_NAME environment variable is not set");
+            throw new IllegalStateException("Missing required environment variable: DYNAMODB_TABLE_NAME");
+        }
+    }
+
+    /**
+     * Processes the records concurrently, at most {@code RECORD_CONCURRENCY} at a time, and waits for all
+     * of them. Failures stay isolated to their record, exactly as when records were processed one by one.
+     * Label writes from all records are buffered and flushed in batches before this method returns.
+     * <p>
+     * Records for the same key are processed one after another in sequencer order, and the writes of each
+     * are flushed before the next reads the index: otherwise a delete would not see the upload buffered
+     * before it, and of two uploads whichever was buffered last would win.
+     *
+     * @return the object keys whose processing or label writes failed
+     */
+    Set<String> processRecords(List<S3EventNotification.S3EventNotificationRecord> records, Context context) {
+        RecordBatch batch = new RecordBatch(
+                labelIndex.newBatch(),
+                ConcurrentHashMap.newKeySet(),
+                new ConcurrentHashMap<>()
+        );
+
+        List<List<S3EventNotification.S3EventNotificationRecord>> recordsByKey = new ArrayList<>(records.stream()
+                .collect(Collectors.groupingBy(record -> record.getS3().getObject().getKey(),
+                        LinkedHashMap::new, Collectors.toList()))
+                .values());
+
+        // Even a single record goes through the executor, so an Error it throws fails only its key.
+        List<Future<?>> pending = recordsByKey.stream()
+                .map(keyRecords -> RECORD_EXECUTOR.submit(() -> processKeyRecords(keyRecords, batch, context)))
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                pending.get(i).get();
+            } catch (InterruptedException e) {
+                pending.forEach(remaining -> remaining.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while processing S3 records", e);
+            } catch (ExecutionException e) {
+                String key = recordsByKey.get(i).get(0).getS3().getObject().getKey();
+                logger.error("Unexpected error processing record for key: {}", key, e.getCause());
+                batch.failedKeys().add(key);
+            }
+        }
+
+        Set<String> failedKeys = batch.failedKeys();
+        Set<String> failedWrites = batch.writes().flush();
+        if (!failedWrites.isEmpty()) {
+            failedWrites.forEach(key -> logger.error("Error storing labels for key: {}", key));
+            failedKeys.addAll(failedWrites);
+        }
+        batch.queuedVersions().forEach((key, version) -> {
+            if (!failedKeys.contains(key)) {
+                RECENTLY_INDEXED.put(key, version);
+            }
+        });
+        return failedKeys;
+    }
+
+    /**
+     * Processes the records of one key in sequencer order, or in delivery order when some have no
+     * sequencer. The writes of all but the last are flushed straight away, so each record sees what the
+     * previous one indexed; after a failure the remaining records are left for the redelivery.
+     */
+    private void processKeyRecords(List<S3EventNotification.S3EventNotificationRecord> keyRecords,
+                                   RecordBatch batch,
+                                   Context context) {
+        List<S3EventNotification.S3EventNotificationRecord> ordered = new ArrayList<>(keyRecords);
+        if (ordered.stream().allMatch(record -> nonNull(normalizeSequencer(record.getS3().getObject().getSequencer())))) {
+            ordered.sort(Comparator.comparing(record -> normalizeSequencer(record.getS3().getObject().getSequencer())));
+        }
+
+        String key = ordered.get(0).getS3().getObject().getKey();
+        for (int i = 0; i < ordered.size() - 1; i++) {
+            RecordBatch recordBatch = new RecordBatch(labelIndex.newBatch(), batch.failedKeys(), batch.queuedVersions());
+            processRecord(ordered.get(i), recordBatch, context);
+            Set<String> failedWrites = recordBatch.writes().flush();
+            if (!failedWrites.isEmpty()) {
+                logger.error("Error storing labels for key: {}", key);
+                batch.failedKeys().addAll(failedWrites);
+            }
+            if (batch.failedKeys().contains(key)) {
+                return;
+            }
+        }
+        processRecord(ordered.get(ordered.size() - 1), batch, context);
+    }
+
+    private void processRecord(S3EventNotification.S3EventNotificationRecord record,
+                               RecordBatch batch,
+                               Context context) {
         try {
             logger.info("Processing record: {}", record);
 
             String srcBucket = record.getS3().getBucket().getName();
             String srcKey = record.getS3().getObject().getKey();
+            ImageBlobStore blobStore = blobStores.apply(srcBucket);
 
             logger.info("Processing image - Bucket: {}, Key: {}", srcBucket, srcKey);
 
-            if (!isValidImageFile(srcKey)) {
+            if (isDerivative(srcKey)) {
+                logger.info("Skipping derivative image: {}", srcKey);
+                return;
+            }
+
+            String eTag = record.getS3().getObject().geteTag();
+            String versionId = record.getS3().getObject().getVersionId();
+            String sequencer = normalizeSequencer(record.getS3().getObject().getSequencer());
+
+            if (nonNull(record.getEventName()) && record.getEventName().startsWith("ObjectRemoved")) {
+                removeImage(blobStore, srcKey, record.getEventName(), versionId, sequencer, batch);
+                return;
+            }
+
+            String sourceVersion = sourceVersion(eTag, versionId);
+            if (nonNull(sourceVersion) && sourceVersion.equals(RECENTLY_INDEXED.get(srcKey))) {
+                logger.info("Skipping already indexed image: {} ({})", srcKey, sourceVersion);
+                return;
+            }
+            Optional<IndexedImage> previous = labelIndex.findImage(srcKey);
+            if (isAlreadyIndexed(srcKey, sourceVersion, previous)) {
+                logger.info("Skipping already indexed image: {} ({})", srcKey, sourceVersion);
+                return;
+            }
+
+            Optional<ImageFormat> format = sniffImageFormat(blobStore, srcBucket, srcKey, sourceVersion);
+            if (format.isEmpty()) {
                 logger.info("Skipping non-image file: {}", srcKey);
+                if (previous.isPresent()) {
+                    // An image was overwritten with something else; its labels no longer apply.
+                    removeImage(blobStore, srcKey, record.getEventName(), versionId, sequencer, batch);
+                }
                 return;
             }
 
-            DetectLabelsResponse recognitionLabelsResponse = detectLabels(srcBucket, srcKey);
-            logger.info("Detected {} labels for image: {}", recognitionLabelsResponse.labels().size(), srcKey);
+            Long size = record.getS3().getObject().getSizeAsLong();
+            Optional<BufferedImage> decoded = decodeImage(blobStore, srcKey, size, format.get());
+            if (decoded.isEmpty() && !format.get().isDetectable()) {
+                logger.info("Skipping {} image that cannot be transcoded for label detection: {}", format.get(), srcKey);
+                if (previous.isPresent()) {
+                    removeImage(blobStore, srcKey, record.getEventName(), versionId, sequencer, batch);
+                }
+                return;
+            }
+            Map<String, IndexedImage.Derivative> derivatives = decoded
+                    .map(image -> putDerivatives(blobStore, srcKey, image))
+                    .orElse(Map.of());
 
-            putLabels(srcKey, recognitionLabelsResponse);
-            logger.info("Successfully stored labels for image: {}", srcKey);
+            List<String> labels = labelsFor(blobStore, srcKey, eTag,
+                    () -> detectLabels(blobStore, srcKey, size, format.get(), decoded), batch.writes());
+            logger.info("Detected {} labels for image: {}", labels.size(), srcKey);
+
+            IndexedImage image = new IndexedImage(srcKey, labels, eTag, versionId, sequencer, derivatives,
+                    System.currentTimeMillis() / 1000);
+            if (previous.isEmpty()) {
+                batch.writes().put(image);
+                logger.info("Queued labels for image: {}", srcKey);
+            } else if (labelIndex.replace(image, previous.get(), batch.writes())) {
+                Set<String> staleDerivatives = new LinkedHashSet<>(derivativeKeysOf(previous.get()));
+                staleDerivatives.removeAll(derivativeKeysOf(image));
+                deleteDerivatives(blobStore, srcKey, staleDerivatives);
+                logger.info("Replaced labels for image: {}", srcKey);
+            } else {
+                return;
+            }
+            if (nonNull(sourceVersion)) {
+                batch.queuedVersions().put(srcKey, sourceVersion);
+            }
         } catch (Exception e) {
             logger.error("Error processing record for key: {}", record.getS3().getObject().getKey(), e);
+            batch.failedKeys().add(record.getS3().getObject().getKey());
         }
     }
 
-    private boolean isValidImageFile(String key) {
-        String lowerKey = key.toLowerCase();
-        return lowerKey.endsWith(".jpg") || lowerKey.endsWith(".jpeg") || lowerKey.endsWith(".png") || lowerKey.endsWith(".gif") || lowerKey.endsWith(".bmp") || lowerKey.endsWith(".webp");
+    /**
+     * Identifies the object contents the event refers to: the versionId on versioned buckets, otherwise the eTag.
+     */
+    private static String sourceVersion(String eTag, String versionId) {
+        if (isVersion(versionId)) {
+            return versionId;
+        }
+        return nonNull(eTag) && !eTag.isEmpty() ? eTag : null;
     }
 
-    private DetectLabelsResponse detectLabels(String bucket, String key) {
-        var detectLabelsRequest = DetectLabelsRequest.builder().image(Image.builder().s3Object(S3Object.builder().bucket(bucket).name(key).build()).build()).build();
-        return rekognitionClient.detectLabels(detectLabelsRequest);
+    /**
+     * S3 sequencers are hexadecimal values of varying length for the same key, compared by right-padding
+     * the shorter one with zeros. Right-padded to a fixed width they order correctly as strings, which lets
+     * the index compare them.
+     */
+    static String normalizeSequencer(String sequencer) {
+        if (isNull(sequencer) || sequencer.isEmpty()) {
+            return null;
+        }
+        String upper = sequencer.toUpperCase(Locale.ROOT);
+        return upper.length() >= SEQUENCER_WIDTH ? upper : upper + "0".repeat(SEQUENCER_WIDTH - upper.length());
     }
 
+    /**
+     * Detects redelivered events for contents that are already indexed from the source version stored with
+     * the indexed image, before any label detection is done.
+     */
+    private boolean isAlreadyIndexed(String key, String sourceVersion, Optional<IndexedImage> indexed) {
+        if (isNull(sourceVersion) || indexed.isEmpty()) {
+            return false;
+        }
 
-    private void putLabels(String key, DetectLabelsResponse response) {
-        Map<String, AttributeValue> item = Map.of(
-                "imageId", AttributeValue.fromS(key),
-                "labels", AttributeValue.fromSs(
-                        response.labels().stream()
-                                .map(Label::name)
-                                .toList()
-                ),
-                "timestamp", AttributeValue.fromN(String.valueOf(System.currentTimeMillis() / 1000))
-        );
+        String indexedVersion = sourceVersion(indexed.get().eTag(), indexed.get().versionId());
+        if (sourceVersion.equals(indexedVersion)) {
+            RECENTLY_INDEXED.put(key, sourceVersion);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a deleted image: from the index in one atomic step, then its derivatives. The image is only
+     * removed if it was indexed from an event older than the delete, so a delete delivered after a newer
+     * upload leaves the newer labels alone. Deleting a noncurrent version of a versioned object leaves the
+     * current version indexed.
+     */
+    private void removeImage(ImageBlobStore blobStore,
+                             String key,
+                             String eventName,
+                             String versionId,
+                             String sequencer,
+                             RecordBatch batch) {
+        Optional<IndexedImage> previous = labelIndex.findImage(key);
+        if (previous.isEmpty()) {
+            RECENTLY_INDEXED.remove(key);
+            batch.queuedVersions().remove(key);
+            logger.info("Nothing indexed for removed image: {}", key);
+            return;
+        }
+
+        String indexedVersionId = previous.get().versionId();
+        if ("ObjectRemoved:Delete".equals(eventName) && isVersion(versionId) && isVersion(indexedVersionId)
+                && !versionId.equals(indexedVersionId)) {
+            logger.info("Skipping removal of noncurrent version {} of image: {}", versionId, key);
+            return;
+        }
+
+        if (!labelIndex.remove(previous.get(), sequencer, batch.writes())) {
+            return;
+        }
+        RECENTLY_INDEXED.remove(key);
+        // An upload of the same key earlier in this batch must not be remembered as indexed.
+        batch.queuedVersions().remove(key);
+        deleteDerivatives(blobStore, key, derivativeKeysOf(previous.get()));
+        logger.info("Removed image from index: {}", key);
+    }
+
+    private void deleteDerivatives(ImageBlobStore blobStore, String key, Collection<String> derivativeKeys) {
+        for (String derivativeKey : derivativeKeys) {
+            try {
+                blobStore.delete(derivativeKey);
+            } catch (RuntimeException e) {
+                logger.warn("Error deleting derivative {} of image {}: {}", derivativeKey, key, e.getMessage());
+            }
+        }
+    }
+
+    private static List<String> derivativeKeysOf(IndexedImage image) {
+        return image.derivatives().values().stream()
+                .map(IndexedImage.Derivative::key)
+                .toList();
+    }
+
+    private static boolean isVersion(String versionId) {
+        return nonNull(versionId) && !versionId.isEmpty() && !"null".equals(versionId);
+    }
+
+    /**
+     * Reads only the first {@link ImageFormat#SNIFF_LENGTH} bytes of the object and
+     * recognises the format from its signature, whatever the key's extension. Decisions are remembered
+     * per object version, so redelivered events for non-images do not fetch again.
+     */
+    private Optional<ImageFormat> sniffImageFormat(ImageBlobStore blobStore, String bucket, String key, String sourceVersion) {
+        String cacheKey = bucket + "/" + key + "#" + sourceVersion;
+        Optional<ImageFormat> cached = SNIFFED_FORMATS.get(cacheKey);
+        if (nonNull(cached)) {
+            return cached;
+        }
+
+        // A missing object was deleted after this event was sent and its removal event takes care of the index.
+        Optional<ImageFormat> format = blobStore.readPrefix(key, ImageFormat.SNIFF_LENGTH)
+                .flatMap(ImageFormat::sniff);
+
+        if (nonNull(sourceVersion)) {
+            SNIFFED_FORMATS.put(cacheKey, format);
+        }
+        return format;
+    }
+
+    private static boolean isDerivative(String key) {
+        return !DERIVATIVE_PREFIX.isBlank() && key.startsWith(DERIVATIVE_PREFIX);
+    }
+
+    private static boolean shouldDownscale(Long size) {
+        return MAX_IMAGE_DIMENSION > 0 && nonNull(size) && size >= DOWNSCALE_MIN_BYTES;
+    }
+
+    /**
+     * Streams the object from the store and decodes it once for all renditions this record needs: the derivatives
+     * and, for large objects or formats Rekognition cannot read, the JPEG sent to it. The decode is subsampled,
+     * so memory stays bounded by the largest rendition rather than by the upload. Empty when no rendition is
+     * needed or the image cannot be decoded; the image is then labelled by reference and gets no derivatives,
+     * unless Rekognition cannot read its format either.
+     */
+    private Optional<BufferedImage> decodeImage(ImageBlobStore blobStore, String key, Long size, ImageFormat format) {
+        int targetDimension = DERIVATIVE_SIZES.isEmpty() ? 0 : DERIVATIVE_SIZES.get(DERIVATIVE_SIZES.size() - 1);
+        if (shouldDownscale(size)) {
+            targetDimension = Math.max(targetDimension, MAX_IMAGE_DIMENSION);
+        }
+        if (!format.isDetectable()) {
+            targetDimension = Math.max(targetDimension, TRANSCODE_DIMENSION);
+        }
+        if (targetDimension == 0) {
+            return Optional.empty();
+        }
+
+        try (ImageBlobStore.Blob object = blobStore.open(key)) {
+            Optional<BufferedImage> decoded;
+            try {
+                decoded = ImageDownscaler.decode(object.content(), targetDimension);
+            } catch (IOException | RuntimeException e) {
+                // Corrupt or truncated files, and encodings ImageIO only partly supports, such as CMYK JPEGs.
+                logger.warn("Error decoding {} image {}: {}", format, key, e.toString());
+                return Optional.empty();
+            }
+            if (decoded.isEmpty()) {
+                logger.warn("Cannot decode {} image: {}", format, key);
+            }
+            return decoded;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading image: " + key, e);
+        }
+    }
+
+    /**
+     * Writes one JPEG rendition per configured size and returns their descriptions for the image item,
+     * keyed by size.
+     */
+    private Map<String, IndexedImage.Derivative> putDerivatives(ImageBlobStore blobStore, String key, BufferedImage image) {
+        Map<String, IndexedImage.Derivative> derivatives = new LinkedHashMap<>();
+        for (int size : DERIVATIVE_SIZES) {
+            BufferedImage resized = ImageDownscaler.resize(image, size);
+            byte[] jpeg;
+            try {
+                jpeg = ImageDownscaler.encodeJpeg(resized, DERIVATIVE_JPEG_QUALITY);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error encoding derivative of image: " + key, e);
+            }
+
+            String derivativeKey = IndexedImage.Derivative.keyFor(DERIVATIVE_PREFIX, String.valueOf(size), key);
+            blobStore.put(derivativeKey, jpeg, ImageFormat.JPEG.contentType());
+
+            derivatives.put(String.valueOf(size), new IndexedImage.Derivative(
+                    derivativeKey, resized.getWidth(), resized.getHeight(), jpeg.length));
+        }
+        logger.info("Stored {} derivatives for image: {}", derivatives.size(), key);
+        return derivatives;
+    }
+
+    /**
+     * Detects the labels of the object: for large objects from a JPEG no larger than
+     * {@code MAX_IMAGE_DIMENSION}, so the detector gets a small, predictable payload; otherwise, and when
+     * that JPEG is still over the inline limit, by reference to the stored object. Formats Rekognition
+     * cannot read are always sent as a JPEG; {@code decoded} is present for them.
+     */
+    private List<String> detectLabels(ImageBlobStore blobStore,
+                                      String key,
+                                      Long size,
+                                      ImageFormat format,
+                                      Optional<BufferedImage> decoded) {
+        if (!format.isDetectable()) {
+            byte[] jpeg = jpegOf(key, decoded.orElseThrow(), TRANSCODE_DIMENSION);
+            logger.info("Transcoded {} image {} to {} JPEG bytes", format, key, jpeg.length);
+            return REKOGNITION_LIMITER.call(() -> labelDetector.detectLabels(jpeg), this::isThrottling);
+        }
+        if (shouldDownscale(size) && decoded.isPresent()) {
+            byte[] jpeg = jpegOf(key, decoded.get(), MAX_IMAGE_DIMENSION);
+            if (jpeg.length <= MAX_INLINE_IMAGE_BYTES) {
+                logger.info("Downscaled image {} from {} to {} bytes", key, size, jpeg.length);
+                return REKOGNITION_LIMITER.call(() -> labelDetector.detectLabels(jpeg), this::isThrottling);
+            }
+            logger.warn("Downscaled image {} is still {} bytes, labelling it by reference", key, jpeg.length);
+        }
+        return REKOGNITION_LIMITER.call(() -> labelDetector.detectLabels(blobStore, key), this::isThrottling);
+    }
+
+    private static byte[] jpegOf(String key, BufferedImage image, int maxDimension) {
+        try {
+            return ImageDownscaler.encodeJpeg(ImageDownscaler.resize(image, maxDimension), DOWNSCALE_JPEG_QUALITY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error encoding image for label detection: " + key, e);
+        }
+    }
+
+    /**
+     * Returns the labels for the object, reusing earlier results for byte-identical content. Content is
+     * identified by the eTag (the MD5 of the bytes for single-part uploads) or, for multipart uploads whose
+     * eTag is not a content hash, by a SHA-256 streamed from the store. Lookups go to the in-memory LRU,
+     * then to the label cache of the index, and only on a miss to the detector.
+     */
+    private List<String> labelsFor(ImageBlobStore blobStore,
+                                   String key,
+                                   String eTag,
+                                   Supplier<List<String>> detect,
+                                   LabelIndex.WriteBatch writes) {
+        if (!labelIndex.hasLabelCache()) {
+            return detect.get();
+        }
 
-        dynamoDbClient.putItem(PutItemRequest.builder()
-                .tableName(TABLE_NAME)
-                .item(item)
-                .build());
+        String contentHash = contentHash(blobStore, key, eTag);
+        List<String> cached = LABEL_CACHE.get(contentHash);
+        if (nonNull(cached)) {
+            logger.info("Reusing cached labels for image: {}", key);
+            return cached;
+        }
+
+        Optional<List<String>> stored = labelIndex.cachedLabels(contentHash);
+        if (stored.isPresent()) {
+            LABEL_CACHE.put(contentHash, stored.get());
+            logger.info("Reusing stored labels for image: {}", key);
+            return stored.get();
+        }
+
+        List<String> labels = detect.get();
+        writes.cacheLabels(key, contentHash, labels);
+        LABEL_CACHE.put(contentHash, labels);
+        return labels;
+    }
+
+    private String contentHash(ImageBlobStore blobStore, String key, String eTag) {
+        // Multipart eTags look like "<md5 of part md5s>-<part count>" and say nothing about the bytes.
+        if (nonNull(eTag) && !eTag.isEmpty() && !eTag.contains("-")) {
+            return "etag:" + eTag.replace("\"", "");
+        }
+
+        try (ImageBlobStore.Blob blob = blobStore.open(key)) {
+            InputStream object = blob.content();
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = object.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return "sha256:" + HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error hashing image: " + key, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private boolean isThrottling(RuntimeException e) {
+        boolean throttling = labelDetector.isThrottling(e);
+        if (throttling) {
+            logger.warn("Rekognition throttled, concurrency limit now {}", REKOGNITION_LIMITER.currentLimit());
+        }
+        return throttling;
+    }
+
+    /**
+     * Parses a comma-separated list of positive integers, returned distinct and in ascending order.
+     */
+    private static List<Integer> intListEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (isNull(value)) {
+            value = defaultValue;
+        }
+        List<Integer> values = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            try {
+                int parsed = Integer.parseInt(part.trim());
+                if (parsed > 0) {
+                    values.add(parsed);
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            logger.warn("Ignoring invalid value in {}: {}", name, part);
+        }
+        return values.stream().distinct().sorted().toList();
     }
 }
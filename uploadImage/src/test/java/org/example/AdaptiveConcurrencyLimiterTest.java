@@ -0,0 +1,89 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final class Throttled extends RuntimeException {
+    }
+
+    @Test
+    void successesRaiseTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 16, 1);
+
+        limiter.call(() -> "ok", e -> false);
+
+        assertEquals(4.25, limiter.currentLimit(), 1e-9);
+    }
+
+    @Test
+    void otherFailuresLeaveTheLimitUnchanged() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 16, 3);
+
+        assertThrows(IllegalStateException.class, () -> limiter.call(() -> {
+            throw new IllegalStateException("not a throttle");
+        }, e -> e instanceof Throttled));
+
+        assertEquals(4, limiter.currentLimit(), 1e-9);
+    }
+
+    @Test
+    void throttlesOfOneRoundHalveTheLimitOnce() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 16, 1);
+        int calls = 4;
+        CountDownLatch started = new CountDownLatch(calls);
+        ExecutorService executor = Executors.newFixedThreadPool(calls);
+        try {
+            Future<?>[] futures = new Future<?>[calls];
+            for (int i = 0; i < calls; i++) {
+                futures[i] = executor.submit(() -> limiter.call(() -> {
+                    started.countDown();
+                    await(started);
+                    throw new Throttled();
+                }, e -> e instanceof Throttled));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    // every call ends throttled
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(4, limiter.currentLimit(), 1e-9);
+    }
+
+    @Test
+    void throttlesOfLaterRoundsHalveTheLimitAgain() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 16, 1);
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(Throttled.class, () -> limiter.call(() -> {
+                throw new Throttled();
+            }, e -> e instanceof Throttled));
+        }
+
+        assertEquals(2, limiter.currentLimit(), 1e-9);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageDownscalerTest {
+
+    @Test
+    void jpegsAreTurnedUprightByTheirExifOrientation() throws IOException {
+        // Red on the left, blue on the right; orientation 6 asks for a quarter turn clockwise.
+        byte[] jpeg = withOrientation(ImageDownscaler.encodeJpeg(halves(40, 20), 0.9f), 6);
+
+        BufferedImage decoded = ImageDownscaler.decode(new ByteArrayInputStream(jpeg), 100).orElseThrow();
+
+        assertEquals(20, decoded.getWidth());
+        assertEquals(40, decoded.getHeight());
+        assertTrue(isRed(decoded.getRGB(10, 5)), "top should be red");
+        assertTrue(isBlue(decoded.getRGB(10, 35)), "bottom should be blue");
+    }
+
+    @Test
+    void jpegsWithoutExifAreLeftAsTheyAre() throws IOException {
+        byte[] jpeg = ImageDownscaler.encodeJpeg(halves(40, 20), 0.9f);
+
+        BufferedImage decoded = ImageDownscaler.decode(new ByteArrayInputStream(jpeg), 100).orElseThrow();
+
+        assertEquals(40, decoded.getWidth());
+        assertEquals(20, decoded.getHeight());
+        assertTrue(isRed(decoded.getRGB(5, 10)));
+    }
+
+    @Test
+    void everyOrientationKeepsOrSwapsTheDimensions() {
+        BufferedImage image = halves(40, 20);
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            BufferedImage oriented = ImageDownscaler.orient(image, orientation);
+            boolean swapped = orientation >= 5;
+            assertEquals(swapped ? 20 : 40, oriented.getWidth(), "width for orientation " + orientation);
+            assertEquals(swapped ? 40 : 20, oriented.getHeight(), "height for orientation " + orientation);
+        }
+        assertTrue(isBlue(ImageDownscaler.orient(image, 2).getRGB(0, 0)));
+        assertTrue(isBlue(ImageDownscaler.orient(image, 8).getRGB(0, 0)));
+        assertTrue(isRed(ImageDownscaler.orient(image, 5).getRGB(0, 0)));
+    }
+
+    @Test
+    void unreadableExifSegmentsMeanUpright() {
+        assertEquals(1, ImageDownscaler.exifOrientation(new byte[0]));
+        assertEquals(1, ImageDownscaler.exifOrientation("Exif\0\0XX".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(1, ImageDownscaler.exifOrientation(Arrays.copyOf(app1(6), 20)));
+        assertEquals(6, ImageDownscaler.exifOrientation(app1(6)));
+    }
+
+    private static BufferedImage halves(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, x < width / 2 ? Color.RED.getRGB() : Color.BLUE.getRGB());
+            }
+        }
+        return image;
+    }
+
+    private static boolean isRed(int rgb) {
+        Color color = new Color(rgb);
+        return color.getRed() > 200 && color.getBlue() < 60;
+    }
+
+    private static boolean isBlue(int rgb) {
+        Color color = new Color(rgb);
+        return color.getBlue() > 200 && color.getRed() < 60;
+    }
+
+    /**
+     * Inserts an APP1 Exif segment with the orientation right after the SOI marker.
+     */
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        byte[] app1 = app1(orientation);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write((app1.length + 2) >> 8);
+        out.write((app1.length + 2) & 0xFF);
+        out.writeBytes(app1);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    /**
+     * A big-endian Exif segment whose first IFD holds only the orientation tag.
+     */
+    private static byte[] app1(int orientation) {
+        ByteBuffer segment = ByteBuffer.allocate(6 + 8 + 2 + 12 + 4);
+        segment.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+        segment.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        segment.putShort((short) 1);
+        segment.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        segment.putInt(0);
+        return segment.array();
+    }
+}
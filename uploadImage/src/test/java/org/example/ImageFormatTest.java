@@ -0,0 +1,54 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageFormatTest {
+
+    @Test
+    void recognisesEachFormatByItsSignature() {
+        assertEquals(Optional.of(ImageFormat.JPEG), ImageFormat.sniff(bytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 0x10)));
+        assertEquals(Optional.of(ImageFormat.PNG), ImageFormat.sniff(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0)));
+        assertEquals(Optional.of(ImageFormat.GIF), ImageFormat.sniff(ascii("GIF87a....")));
+        assertEquals(Optional.of(ImageFormat.GIF), ImageFormat.sniff(ascii("GIF89a....")));
+        assertEquals(Optional.of(ImageFormat.BMP), ImageFormat.sniff(ascii("BM............")));
+        assertEquals(Optional.of(ImageFormat.WEBP), ImageFormat.sniff(ascii("RIFF\0\0\0\0WEBPVP8 ")));
+    }
+
+    @Test
+    void rejectsOtherAndTruncatedContent() {
+        assertEquals(Optional.empty(), ImageFormat.sniff(new byte[0]));
+        assertEquals(Optional.empty(), ImageFormat.sniff(bytes(0xFF, 0xD8)));
+        assertEquals(Optional.empty(), ImageFormat.sniff(ascii("%PDF-1.7")));
+        assertEquals(Optional.empty(), ImageFormat.sniff(ascii("BM")));
+        assertEquals(Optional.empty(), ImageFormat.sniff(ascii("RIFF\0\0\0\0WAVEfmt ")));
+        assertEquals(Optional.empty(), ImageFormat.sniff(ascii("GIF90a")));
+    }
+
+    @Test
+    void onlyJpegAndPngAreDetectableAsTheyAre() {
+        assertTrue(ImageFormat.JPEG.isDetectable());
+        assertTrue(ImageFormat.PNG.isDetectable());
+        assertFalse(ImageFormat.GIF.isDetectable());
+        assertFalse(ImageFormat.BMP.isDetectable());
+        assertFalse(ImageFormat.WEBP.isDetectable());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
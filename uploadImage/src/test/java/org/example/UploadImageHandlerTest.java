@@ -0,0 +1,218 @@
+package org.example;
+
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.serialization.PojoSerializer;
+import com.amazonaws.services.lambda.runtime.serialization.events.LambdaEventSerializers;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The indexes have no label cache, so every upload is detected: the label caches of the handler are
+// shared by all tests, and several tests upload the same content.
+class UploadImageHandlerTest {
+
+    private static final PojoSerializer<S3Event> S3_EVENT_SERIALIZER =
+            LambdaEventSerializers.serializerFor(S3Event.class, UploadImageHandlerTest.class.getClassLoader());
+
+    @Test
+    void sequencersOfDifferentLengthsCompareAfterRightPadding() {
+        // S3 compares sequencers by right-padding the shorter one with zeros: FF(00) is later than 0100.
+        assertTrue(UploadImageHandler.normalizeSequencer("FF")
+                .compareTo(UploadImageHandler.normalizeSequencer("0100")) > 0);
+        assertTrue(UploadImageHandler.normalizeSequencer("0055AED6DCD90281E5")
+                .compareTo(UploadImageHandler.normalizeSequencer("0055AED6DCD90281E501")) < 0);
+        assertTrue(UploadImageHandler.normalizeSequencer("0055AED6DCD90281E6")
+                .compareTo(UploadImageHandler.normalizeSequencer("0055AED6DCD90281E501")) > 0);
+    }
+
+    @Test
+    void sequencersDifferingOnlyInTrailingZerosAreEqual() {
+        assertEquals(UploadImageHandler.normalizeSequencer("0055aed6dcd90281e5"),
+                UploadImageHandler.normalizeSequencer("0055AED6DCD90281E500"));
+    }
+
+    @Test
+    void missingSequencerIsNull() {
+        assertNull(UploadImageHandler.normalizeSequencer(null));
+        assertNull(UploadImageHandler.normalizeSequencer(""));
+    }
+
+    @Test
+    void indexesUploadsAfterCheckpointAndRestoreWithInMemoryWiring() throws IOException {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex(false);
+        InMemoryLabelDetector labelDetector = new InMemoryLabelDetector(Map.of(), List.of("Dog"));
+        blobStore.put("dog.png", png(), "image/png");
+        UploadImageHandler handler = new UploadImageHandler(labelDetector, labelIndex, bucket -> blobStore);
+
+        handler.beforeCheckpoint(null);
+        handler.afterRestore(null);
+        handler.handleRequest(s3Event("dog.png", "restore"), null);
+
+        assertEquals(List.of("Dog"), labelIndex.findImage("dog.png").orElseThrow().labels());
+        assertEquals(1, labelDetector.calls());
+    }
+
+    @Test
+    void formatsRekognitionCannotReadAreTranscodedOrSkipped() throws IOException {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex(false);
+        // By reference every key would be labelled ByReference; bytes are labelled Transcoded.
+        InMemoryLabelDetector labelDetector = new InMemoryLabelDetector(
+                Map.of("cat.gif", List.of("ByReference"), "cat.webp", List.of("ByReference")), List.of("Transcoded"));
+        blobStore.put("cat.gif", encode("gif"), "image/gif");
+        blobStore.put("cat.webp", "RIFF\0\0\0\0WEBPVP8 not really".getBytes(StandardCharsets.US_ASCII), "image/webp");
+        UploadImageHandler handler = new UploadImageHandler(labelDetector, labelIndex, bucket -> blobStore);
+
+        handler.handleRequest(s3Event("cat.gif", "transcode-gif", "cat.webp", "transcode-webp"), null);
+
+        assertEquals(List.of("Transcoded"), labelIndex.findImage("cat.gif").orElseThrow().labels());
+        assertTrue(labelIndex.findImage("cat.webp").isEmpty());
+        assertEquals(1, labelDetector.calls());
+    }
+
+    @Test
+    void aFailingRecordOnlyFailsItsOwnKey() throws IOException {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex(false);
+        InMemoryLabelDetector labels = new InMemoryLabelDetector(Map.of(), List.of("Dog"));
+        AtomicBoolean failing = new AtomicBoolean(true);
+        LabelDetector labelDetector = new LabelDetector() {
+            @Override
+            public List<String> detectLabels(ImageBlobStore store, String key) {
+                if (failing.get() && key.equals("broken.png")) {
+                    throw new IllegalStateException("Detection failed");
+                }
+                return labels.detectLabels(store, key);
+            }
+
+            @Override
+            public List<String> detectLabels(byte[] image) {
+                return labels.detectLabels(image);
+            }
+        };
+        for (String key : List.of("first.png", "broken.png", "last.png")) {
+            blobStore.put(key, png(), "image/png");
+        }
+        UploadImageHandler handler = new UploadImageHandler(labelDetector, labelIndex, bucket -> blobStore);
+        S3Event event = s3Event("first.png", "partial-1", "broken.png", "partial-2", "last.png", "partial-3");
+
+        Set<String> failedKeys = handler.processRecords(event.getRecords(), null);
+
+        assertEquals(Set.of("broken.png"), failedKeys);
+        assertEquals(2, labelIndex.size());
+        assertTrue(labelIndex.findImage("broken.png").isEmpty());
+        assertEquals(2, labels.calls());
+        // Derivatives are written before detection: three uploads with two sizes each.
+        assertEquals(9, blobStore.count());
+
+        // The failed key was not remembered as indexed, so its redelivery is processed again.
+        failing.set(false);
+        assertTrue(handler.processRecords(event.getRecords(), null).isEmpty());
+        assertEquals(3, labelIndex.size());
+        assertEquals(3, labels.calls());
+    }
+
+    @Test
+    void anErrorInASingleRecordBatchIsReportedAsAFailedKey() throws IOException {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        LabelDetector labelDetector = new LabelDetector() {
+            @Override
+            public List<String> detectLabels(ImageBlobStore store, String key) {
+                throw new OutOfMemoryError("Detection ran out of memory");
+            }
+
+            @Override
+            public List<String> detectLabels(byte[] image) {
+                throw new OutOfMemoryError("Detection ran out of memory");
+            }
+        };
+        blobStore.put("huge.png", png(), "image/png");
+        UploadImageHandler handler = new UploadImageHandler(labelDetector, new InMemoryLabelIndex(false), bucket -> blobStore);
+
+        assertEquals(Set.of("huge.png"), handler.processRecords(s3Event("huge.png", "error-1").getRecords(), null));
+    }
+
+    @Test
+    void anUploadAndADeleteOfOneKeyInABatchLeaveItUnindexedInEitherDeliveryOrder() throws IOException {
+        String upload = record("ObjectCreated:Put", "gone.png", "gone-1", "0055AED6DCD90281E1");
+        String delete = record("ObjectRemoved:Delete", "gone.png", null, "0055AED6DCD90281E2");
+        for (List<String> records : List.of(List.of(upload, delete), List.of(delete, upload))) {
+            InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+            InMemoryLabelIndex labelIndex = new InMemoryLabelIndex(false);
+            blobStore.put("gone.png", png(), "image/png");
+            UploadImageHandler handler = new UploadImageHandler(
+                    new InMemoryLabelDetector(Map.of(), List.of("Dog")), labelIndex, bucket -> blobStore);
+
+            assertTrue(handler.processRecords(s3Event(records).getRecords(), null).isEmpty());
+            assertEquals(0, labelIndex.size());
+            // The derivatives written for the upload were deleted with it.
+            assertEquals(1, blobStore.count());
+        }
+    }
+
+    @Test
+    void theNewestOfTwoUploadsOfOneKeyInABatchIsIndexed() throws IOException {
+        InMemoryImageBlobStore blobStore = new InMemoryImageBlobStore();
+        InMemoryLabelIndex labelIndex = new InMemoryLabelIndex(false);
+        blobStore.put("twice.png", png(), "image/png");
+        UploadImageHandler handler = new UploadImageHandler(
+                new InMemoryLabelDetector(Map.of(), List.of("Dog")), labelIndex, bucket -> blobStore);
+
+        List<String> records = List.of(
+                record("ObjectCreated:Put", "twice.png", "twice-new", "0055AED6DCD90281E2"),
+                record("ObjectCreated:Put", "twice.png", "twice-old", "0055AED6DCD90281E1"));
+
+        assertTrue(handler.processRecords(s3Event(records).getRecords(), null).isEmpty());
+        assertEquals("twice-new", labelIndex.findImage("twice.png").orElseThrow().eTag());
+    }
+
+    private static byte[] png() throws IOException {
+        return encode("png");
+    }
+
+    private static byte[] encode(String format) throws IOException {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB), format, image);
+        return image.toByteArray();
+    }
+
+    /**
+     * An upload notification for each key, with its own eTag and a sequencer increasing with the position.
+     */
+    private static S3Event s3Event(String... keysAndETags) {
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < keysAndETags.length; i += 2) {
+            records.add(record("ObjectCreated:Put", keysAndETags[i], keysAndETags[i + 1], "0055AED6DCD90281E" + i / 2));
+        }
+        return s3Event(records);
+    }
+
+    private static S3Event s3Event(List<String> records) {
+        return S3_EVENT_SERIALIZER.fromJson("{\"Records\":[" + String.join(",", records) + "]}");
+    }
+
+    /**
+     * One notification record; removals carry no eTag.
+     */
+    private static String record(String eventName, String key, String eTag, String sequencer) {
+        return "{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"eventName\":\"" + eventName + "\","
+                + "\"eventTime\":\"1970-01-01T00:00:00.000Z\",\"s3\":{\"bucket\":{\"name\":\"test\"},"
+                + "\"object\":{\"key\":\"" + key + "\",\"size\":1,"
+                + (eTag == null ? "" : "\"eTag\":\"" + eTag + "\",")
+                + "\"sequencer\":\"" + sequencer + "\"}}}";
+    }
+}